@@ -0,0 +1,118 @@
+package org.apache.mesos.hbase.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Framework message carrying config files from the scheduler to an executor. Every file is listed
+ * with its version (see {@link ConfigVersion}); the content is only included when the executor
+ * was not sent that version before.
+ *
+ * Layout: magic (2 bytes), version (1 byte), file count (int), then for every file its name and
+ * version (modified UTF-8) and the content length (int, -1 when left out) followed by the content.
+ */
+public final class ConfigMessage {
+
+  private static final byte MAGIC_0 = 'H';
+  private static final byte MAGIC_1 = 'C';
+  private static final byte VERSION = 1;
+
+  private final List<ConfigFile> files = new ArrayList<>();
+
+  /**
+   * A config file as listed in a message.
+   */
+  public static final class ConfigFile {
+    private final String name;
+    private final String version;
+    private final byte[] content;
+
+    ConfigFile(String name, String version, byte[] content) {
+      this.name = name;
+      this.version = version;
+      this.content = content;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getVersion() {
+      return version;
+    }
+
+    /**
+     * @return the content or null if the message leaves it out
+     */
+    public byte[] getContent() {
+      return content;
+    }
+  }
+
+  public ConfigMessage add(String name, String version, byte[] content) {
+    files.add(new ConfigFile(name, version, content));
+    return this;
+  }
+
+  public List<ConfigFile> getFiles() {
+    return Collections.unmodifiableList(files);
+  }
+
+  public byte[] encode() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(MAGIC_0);
+    out.writeByte(MAGIC_1);
+    out.writeByte(VERSION);
+    out.writeInt(files.size());
+    for (ConfigFile file : files) {
+      out.writeUTF(file.name);
+      out.writeUTF(file.version);
+      if (file.content == null) {
+        out.writeInt(-1);
+      } else {
+        out.writeInt(file.content.length);
+        out.write(file.content);
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  public static ConfigMessage decode(byte[] data) throws IOException {
+    if (!isConfigMessage(data)) {
+      throw new IOException("Not a config message");
+    }
+    if (data[2] != VERSION) {
+      throw new IOException("Unsupported config message version " + data[2]);
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 3, data.length - 3));
+    ConfigMessage message = new ConfigMessage();
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      String version = in.readUTF();
+      int length = in.readInt();
+      byte[] content = null;
+      if (length >= 0) {
+        content = new byte[length];
+        in.readFully(content);
+      }
+      message.add(name, version, content);
+    }
+    return message;
+  }
+
+  /**
+   * Older schedulers send the plain {@code HBaseConstants.RELOAD_CONFIG} string instead.
+   */
+  public static boolean isConfigMessage(byte[] data) {
+    return data.length >= 3 && data[0] == MAGIC_0 && data[1] == MAGIC_1;
+  }
+}
@@ -0,0 +1,58 @@
+package org.apache.mesos.hbase.config;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Versions of the config files served to the executors. A version is a strong HTTP entity tag
+ * made of the SHA-1 of the file content, so equal content always has the same version, no matter
+ * which scheduler rendered it.
+ */
+public final class ConfigVersion {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private ConfigVersion() {
+  }
+
+  public static String of(byte[] content) {
+    return of(ByteBuffer.wrap(content));
+  }
+
+  /**
+   * Version of the remaining content of a buffer, e.g. a mapped file. The buffer's position is
+   * left unchanged.
+   */
+  public static String of(ByteBuffer content) {
+    MessageDigest sha1;
+    try {
+      sha1 = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available", e);
+    }
+    sha1.update(content.duplicate());
+    byte[] digest = sha1.digest();
+    StringBuilder etag = new StringBuilder(digest.length * 2 + 2).append('"');
+    for (byte b : digest) {
+      etag.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+    return etag.append('"').toString();
+  }
+
+  /**
+   * Whether an If-None-Match header value names the given version.
+   */
+  public static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -5,6 +5,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.mesos.hbase.util.HBaseConstants;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -21,6 +22,19 @@ public class HBaseFrameworkConfig {
 
   private static final int DEFAULT_HADOOP_HEAP_SIZE = 512;
   private static final int DEFAULT_EXECUTOR_HEAP_SIZE = 256;
+  private static final int DEFAULT_EXECUTOR_LOG_BUFFER_KB = 1024;
+  private static final int DEFAULT_EXECUTOR_RESTART_BACKOFF_MS = 1000;
+  private static final int DEFAULT_EXECUTOR_MAX_RESTART_BACKOFF_MS = 60000;
+  private static final int DEFAULT_EXECUTOR_MAX_RESTARTS = 5;
+  private static final int DEFAULT_READINESS_PROBE_INTERVAL_MS = 2000;
+  private static final int DEFAULT_DRAIN_TIMEOUT = 300;
+  private static final int DEFAULT_DRAIN_THREADS = 4;
+  private static final int DEFAULT_DRAIN_PROGRESS_INTERVAL = 10;
+  private static final int DEFAULT_MASTER_INFO_PORT = 16010;
+  private static final int DEFAULT_REGIONSERVER_INFO_PORT = 16030;
+  private static final int DEFAULT_HEALTH_CHECK_INTERVAL = 10;
+  private static final int DEFAULT_HEALTH_CHECK_TIMEOUT = 5;
+  private static final int DEFAULT_HEALTH_CHECK_CONSECUTIVE_FAILURES = 3;
   private static final int DEFAULT_SLAVENODE_HEAP_SIZE = 1024;
   private static final int DEFAULT_MASTERNODE_HEAP_SIZE = 4096;
   private static final int DEFAULT_STARGATE_HEAP_SIZE = 256;
@@ -35,7 +49,20 @@ public class HBaseFrameworkConfig {
   private static final int DEFAULT_FAILOVER_TIMEOUT = 31449600;
   private static final int DEFAULT_ZK_TIME_MS = 20000;
   private static final int DEFAULT_RECONCILIATION_TIMEOUT = 30;
+  private static final int DEFAULT_RECONCILIATION_BACKOFF_MS = 1000;
+  private static final int DEFAULT_ROLLING_RESTART_BATCH_SIZE = 1;
+  private static final int DEFAULT_ROLLING_RESTART_BATCH_TIMEOUT = 900;
+  private static final int DEFAULT_ROLLING_RESTART_CHECK_MS = 5000;
   private static final int DEFAULT_DEADNODE_TIMEOUT = 90;
+  private static final int DEFAULT_STAGING_TIMEOUT = 600;
+  private static final int DEFAULT_CONFIG_RELOAD_WINDOW_MS = 2000;
+  private static final int DEFAULT_DNS_CACHE_TTL = 60;
+  private static final int DEFAULT_DNS_NEGATIVE_CACHE_TTL_MS = 2000;
+  private static final int DEFAULT_ARTIFACT_MAX_CONCURRENT_DOWNLOADS = 32;
+  private static final int DEFAULT_REFUSE_SECONDS_INSUFFICIENT_RESOURCES = 30;
+  private static final int DEFAULT_REFUSE_SECONDS_COLOCATION = 300;
+  private static final int DEFAULT_REFUSE_SECONDS_RECONCILING = 10;
+  private static final int DEFAULT_REFUSE_SECONDS_ALL_RUNNING = 600;
 
   private static final int DEFAULT_STARGATE_NODE_COUNT = 2;
 
@@ -90,6 +117,22 @@ public class HBaseFrameworkConfig {
     return getConf().get("mesos.hbase.mesosdns.domain", "mesos");
   }
 
+  /**
+   * Seconds a resolved host name is kept before it is looked up again.
+   */
+  public int getDnsCacheTtl() {
+    return getConf().getInt("mesos.hbase.mesosdns.cache.ttl.seconds", DEFAULT_DNS_CACHE_TTL);
+  }
+
+  /**
+   * Milliseconds a host name which did not resolve is remembered as unknown, it is how often the
+   * scheduler checks whether mesos-dns published the master nodes' names.
+   */
+  public int getDnsNegativeCacheTtl() {
+    return getConf().getInt("mesos.hbase.mesosdns.negative.ttl.ms",
+        DEFAULT_DNS_NEGATIVE_CACHE_TTL_MS);
+  }
+
   public boolean usingNativeHadoopBinaries() {
     return Boolean.valueOf(getConf().get("mesos.hbase.native-hadoop-binaries", "false"));
   }
@@ -122,6 +165,128 @@ public class HBaseFrameworkConfig {
     return getConf().getInt("mesos.hbase.executor.heap.size", DEFAULT_EXECUTOR_HEAP_SIZE);
   }
 
+  /**
+   * Kilobytes of process output the executor holds while it is written to its STDOUT and STDERR.
+   */
+  public int getExecutorLogBuffer() {
+    return getConf().getInt("mesos.hbase.executor.log.buffer.kb", DEFAULT_EXECUTOR_LOG_BUFFER_KB);
+  }
+
+  /**
+   * Whether process output not fitting into the executor's log buffer is dropped rather than
+   * blocking the process until it is written.
+   */
+  public boolean dropExecutorLogOverflow() {
+    return getConf().getBoolean("mesos.hbase.executor.log.drop", true);
+  }
+
+  /**
+   * Milliseconds the executor waits before it restarts a node's process which exited, doubled on
+   * every restart in a row.
+   */
+  public int getExecutorRestartBackoff() {
+    return getConf().getInt("mesos.hbase.executor.restart.backoff.ms",
+        DEFAULT_EXECUTOR_RESTART_BACKOFF_MS);
+  }
+
+  /**
+   * Upper bound of the restart backoff, a process running longer than this is considered started
+   * fine and its restarts are counted from 0 again.
+   */
+  public int getExecutorMaxRestartBackoff() {
+    return getConf().getInt("mesos.hbase.executor.restart.backoff.max.ms",
+        DEFAULT_EXECUTOR_MAX_RESTART_BACKOFF_MS);
+  }
+
+  /**
+   * Restarts in a row after which the executor gives up and fails the task.
+   */
+  public int getExecutorMaxRestarts() {
+    return getConf().getInt("mesos.hbase.executor.max.restarts", DEFAULT_EXECUTOR_MAX_RESTARTS);
+  }
+
+  /**
+   * Milliseconds between the probes of a starting node, it is reported running once it serves
+   * its info port.
+   */
+  public int getReadinessProbeInterval() {
+    return getConf().getInt("mesos.hbase.executor.readiness.probe.ms",
+        DEFAULT_READINESS_PROBE_INTERVAL_MS);
+  }
+
+  /**
+   * Whether a killed region server first moves its regions to the other region servers, so they
+   * stay online instead of waiting for its WAL to be split.
+   */
+  public boolean drainRegionServers() {
+    return getConf().getBoolean("mesos.hbase.executor.drain.enabled", true);
+  }
+
+  /**
+   * Seconds a killed region server waits for its regions to move before it is stopped anyway.
+   */
+  public int getDrainTimeout() {
+    return getConf().getInt("mesos.hbase.executor.drain.timeout.seconds", DEFAULT_DRAIN_TIMEOUT);
+  }
+
+  /**
+   * Regions moved in parallel while draining a region server.
+   */
+  public int getDrainThreads() {
+    return getConf().getInt("mesos.hbase.executor.drain.threads", DEFAULT_DRAIN_THREADS);
+  }
+
+  /**
+   * Seconds between the status updates reporting the regions a draining region server still hosts.
+   */
+  public int getDrainProgressInterval() {
+    return getConf().getInt("mesos.hbase.executor.drain.progress.seconds",
+        DEFAULT_DRAIN_PROGRESS_INTERVAL);
+  }
+
+  public int getMasterInfoPort() {
+    return getConf().getInt("hbase.master.info.port", DEFAULT_MASTER_INFO_PORT);
+  }
+
+  public int getRegionServerInfoPort() {
+    return getConf().getInt("hbase.regionserver.info.port", DEFAULT_REGIONSERVER_INFO_PORT);
+  }
+
+  /**
+   * Whether the nodes are launched with a health check, probing their info or REST port while
+   * they run.
+   */
+  public boolean usingHealthChecks() {
+    return getConf().getBoolean("mesos.hbase.healthcheck.enabled", true);
+  }
+
+  public int getHealthCheckInterval() {
+    return getConf().getInt("mesos.hbase.healthcheck.interval.seconds",
+        DEFAULT_HEALTH_CHECK_INTERVAL);
+  }
+
+  public int getHealthCheckTimeout() {
+    return getConf().getInt("mesos.hbase.healthcheck.timeout.seconds",
+        DEFAULT_HEALTH_CHECK_TIMEOUT);
+  }
+
+  /**
+   * Failed probes in a row after which a node is reported unhealthy and replaced.
+   */
+  public int getHealthCheckConsecutiveFailures() {
+    return getConf().getInt("mesos.hbase.healthcheck.consecutive.failures",
+        DEFAULT_HEALTH_CHECK_CONSECUTIVE_FAILURES);
+  }
+
+  /**
+   * Path of the health check of the node type, served on its info port, or the REST port for
+   * stargate nodes.
+   */
+  public String getHealthCheckPath(String nodeType) {
+    String defaultPath = HBaseConstants.STARGATE_NODE_ID.equals(nodeType) ? "/version" : "/jmx";
+    return getConf().get("mesos.hbase.healthcheck." + nodeType + ".path", defaultPath);
+  }
+
   public int getStargateNodeCount() {
     return getConf().getInt("mesos.hbase.stargate.node.count", DEFAULT_STARGATE_NODE_COUNT);
   }
@@ -292,10 +457,114 @@ public class HBaseFrameworkConfig {
     return getConf().getInt("mesos.reconciliation.timeout.seconds", DEFAULT_RECONCILIATION_TIMEOUT);
   }
 
+  /**
+   * Milliseconds until the statuses of unconfirmed tasks are asked for again, doubled after every
+   * request until the reconciliation timeout is up.
+   */
+  public int getReconciliationBackoff() {
+    return getConf().getInt("mesos.reconciliation.backoff.ms", DEFAULT_RECONCILIATION_BACKOFF_MS);
+  }
+
+  /**
+   * Region servers replaced at a time by a rolling restart.
+   */
+  public int getRollingRestartBatchSize() {
+    return getConf().getInt("mesos.hbase.rolling.restart.batch.size",
+        DEFAULT_ROLLING_RESTART_BATCH_SIZE);
+  }
+
+  /**
+   * Seconds a batch of a rolling restart may take to drain, come back healthy and have its regions
+   * assigned, the rolling restart is aborted after that. Includes the executor's drain timeout.
+   */
+  public int getRollingRestartBatchTimeout() {
+    return getConf().getInt("mesos.hbase.rolling.restart.batch.timeout.seconds",
+        DEFAULT_ROLLING_RESTART_BATCH_TIMEOUT);
+  }
+
+  /**
+   * Milliseconds between the checks whether a batch of a rolling restart is done.
+   */
+  public int getRollingRestartCheckInterval() {
+    return getConf().getInt("mesos.hbase.rolling.restart.check.ms",
+        DEFAULT_ROLLING_RESTART_CHECK_MS);
+  }
+
   public int getDeadNodeTimeout() {
     return getConf().getInt("mesos.hbase.deadnode.timeout.seconds", DEFAULT_DEADNODE_TIMEOUT);
   }
 
+  /**
+   * Seconds a launched task may take to run before it is killed and launched again, 0 to wait
+   * forever.
+   */
+  public int getStagingTimeout() {
+    return getConf().getInt("mesos.hbase.task.staging.timeout.seconds", DEFAULT_STAGING_TIMEOUT);
+  }
+
+  /**
+   * Config reloads requested within this window are sent to the running tasks as one reload.
+   */
+  public int getConfigReloadWindow() {
+    return getConf().getInt("mesos.hbase.config.reload.window.ms", DEFAULT_CONFIG_RELOAD_WINDOW_MS);
+  }
+
+  /**
+   * Seconds Mesos holds back offers from an agent after one was declined for being too small.
+   */
+  public int getRefuseSecondsForInsufficientResources() {
+    return getConf().getInt("mesos.hbase.offer.refuse.resources.seconds",
+        DEFAULT_REFUSE_SECONDS_INSUFFICIENT_RESOURCES);
+  }
+
+  /**
+   * Seconds Mesos holds back offers from an agent already running what could be launched there.
+   */
+  public int getRefuseSecondsForColocation() {
+    return getConf().getInt("mesos.hbase.offer.refuse.colocation.seconds",
+        DEFAULT_REFUSE_SECONDS_COLOCATION);
+  }
+
+  /**
+   * Seconds Mesos holds back offers declined while the tasks are reconciled.
+   */
+  public int getRefuseSecondsWhileReconciling() {
+    return getConf().getInt("mesos.hbase.offer.refuse.reconciling.seconds",
+        DEFAULT_REFUSE_SECONDS_RECONCILING);
+  }
+
+  /**
+   * Seconds Mesos holds back offers declined because all nodes are running. Offers are revived as
+   * soon as a task ends.
+   */
+  public int getRefuseSecondsWhenAllRunning() {
+    return getConf().getInt("mesos.hbase.offer.refuse.complete.seconds",
+        DEFAULT_REFUSE_SECONDS_ALL_RUNNING);
+  }
+
+  /**
+   * Downloads of the executor tarball served at once by the config server. Further requests get a
+   * 503 with a Retry-After right away.
+   */
+  public int getArtifactMaxConcurrentDownloads() {
+    return getConf().getInt("mesos.hbase.artifact.max.concurrent.downloads",
+        DEFAULT_ARTIFACT_MAX_CONCURRENT_DOWNLOADS);
+  }
+
+  /**
+   * Directory on every agent keeping the unpacked executor tarballs, one per checksum.
+   */
+  public String getArtifactCacheDir() {
+    return getConf().get("mesos.hbase.artifact.cache.dir", "/var/lib/hbase/artifacts");
+  }
+
+  /**
+   * Whether the executor tarball and the JRE are kept in the Mesos fetcher cache of the agents.
+   */
+  public boolean usingFetcherCache() {
+    return Boolean.valueOf(getConf().get("mesos.hbase.fetcher.cache", "true"));
+  }
+
   public String getJreUrl() {
     return getConf().get("mesos.hbase.jre-url",
         "https://downloads.mesosphere.io/java/jre-7u76-linux-x64.tar.gz");
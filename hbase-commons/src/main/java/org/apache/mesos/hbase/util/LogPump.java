@@ -0,0 +1,158 @@
+package org.apache.mesos.hbase.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies the output of started processes to the executor's STDOUT and STDERR. Readers hand over
+ * chunks of bytes in a fixed ring of direct buffers, a single writer thread shared by all redirects
+ * writes them out to the file descriptors, bypassing the locking of System.out and System.err. When
+ * the ring is full readers either wait for the writer, which in the end blocks the process on its
+ * pipe, or drop their output, which never does.
+ */
+public class LogPump {
+  private final Log log = LogFactory.getLog(LogPump.class);
+
+  static final int BUFFER_SIZE = 8192;
+  // dropped output and failed writes are reported at most this often
+  static final long WARNING_PERIOD_MILLIS = 10000;
+
+  /**
+   * What a reader does when every buffer waits to be written.
+   */
+  public enum Overflow {
+    BLOCK, DROP
+  }
+
+  /**
+   * A buffer of the ring, with where its bytes go.
+   */
+  static final class Slot {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    WritableByteChannel target;
+  }
+
+  private final WritableByteChannel stdout;
+  private final WritableByteChannel stderr;
+  private final Overflow overflow;
+  private final BlockingQueue<Slot> free;
+  private final BlockingQueue<Slot> filled;
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final AtomicLong bytesDropped = new AtomicLong();
+  private final AtomicLong writeFailures = new AtomicLong();
+
+  /**
+   * A pump writing to the executor's own STDOUT and STDERR.
+   */
+  public LogPump(int capacityBytes, Overflow overflow) {
+    this(new FileOutputStream(FileDescriptor.out).getChannel(),
+        new FileOutputStream(FileDescriptor.err).getChannel(), capacityBytes, overflow);
+  }
+
+  public LogPump(WritableByteChannel stdout, WritableByteChannel stderr, int capacityBytes,
+      Overflow overflow) {
+    this.stdout = stdout;
+    this.stderr = stderr;
+    this.overflow = overflow;
+    int slots = Math.max(2, capacityBytes / BUFFER_SIZE);
+    this.free = new ArrayBlockingQueue<>(slots);
+    this.filled = new ArrayBlockingQueue<>(slots);
+    for (int i = 0; i < slots; i++) {
+      free.add(new Slot());
+    }
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, "log-pump");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Starts copying the process's STDOUT and STDERR.
+   */
+  public void redirect(Process process) {
+    new StreamRedirect(process.getInputStream(), this, stdout).start();
+    new StreamRedirect(process.getErrorStream(), this, stderr).start();
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  public long getBytesDropped() {
+    return bytesDropped.get();
+  }
+
+  public long getWriteFailures() {
+    return writeFailures.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d bytes written, %d bytes dropped, %d failed writes",
+        getBytesWritten(), getBytesDropped(), getWriteFailures());
+  }
+
+  /**
+   * @return a slot to read into, null when the ring is full and the output is to be dropped
+   */
+  Slot acquire() throws InterruptedException {
+    return overflow == Overflow.BLOCK ? free.take() : free.poll();
+  }
+
+  void submit(Slot slot, WritableByteChannel target) {
+    slot.target = target;
+    slot.buffer.flip();
+    // never full, there are only as many slots as it holds
+    filled.add(slot);
+  }
+
+  void release(Slot slot) {
+    slot.target = null;
+    slot.buffer.clear();
+    free.add(slot);
+  }
+
+  void dropped(int bytes) {
+    bytesDropped.addAndGet(bytes);
+  }
+
+  private void write() {
+    long warned = 0;
+    while (true) {
+      Slot slot;
+      try {
+        slot = filled.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      try {
+        int bytes = slot.buffer.remaining();
+        while (slot.buffer.hasRemaining()) {
+          slot.target.write(slot.buffer);
+        }
+        bytesWritten.addAndGet(bytes);
+      } catch (IOException e) {
+        writeFailures.incrementAndGet();
+        if (System.currentTimeMillis() - warned >= WARNING_PERIOD_MILLIS) {
+          log.error("Unable to write process output, " + this, e);
+          warned = System.currentTimeMillis();
+        }
+      } finally {
+        release(slot);
+      }
+    }
+  }
+}
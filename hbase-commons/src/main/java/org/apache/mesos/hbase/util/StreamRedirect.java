@@ -3,38 +3,85 @@ package org.apache.mesos.hbase.util;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Can be used to redirect the STDOUT and STDERR of a started process. Used for the executors.
+ * Reads whatever bytes the process wrote and hands them to a {@link LogPump}, without decoding
+ * lines.
  */
 public class StreamRedirect extends Thread {
   private final Log log = LogFactory.getLog(StreamRedirect.class);
 
-  private InputStream stream;
-  private PrintStream outputStream;
+  private final InputStream stream;
+  private final LogPump pump;
+  private final WritableByteChannel target;
 
-  public StreamRedirect(InputStream stream, PrintStream outputStream) {
+  public StreamRedirect(InputStream stream, LogPump pump, WritableByteChannel target) {
+    super("stream-redirect");
+    setDaemon(true);
     this.stream = stream;
-    this.outputStream = outputStream;
+    this.pump = pump;
+    this.target = target;
   }
 
   public void run() {
+    ReadableByteChannel channel = Channels.newChannel(stream);
+    // read into while output is dropped, so the process never blocks on its pipe
+    ByteBuffer discard = null;
+    long dropped = 0;
+    long warned = 0;
     try {
-      InputStreamReader streamReader = new InputStreamReader(stream, Charset.defaultCharset());
-      BufferedReader streamBuffer = new BufferedReader(streamReader);
-
-      String streamLine = null;
-      while ((streamLine = streamBuffer.readLine()) != null) {
-        outputStream.println(streamLine);
+      while (true) {
+        LogPump.Slot slot = pump.acquire();
+        if (slot == null) {
+          if (discard == null) {
+            discard = ByteBuffer.allocateDirect(LogPump.BUFFER_SIZE);
+          }
+          discard.clear();
+          int read = channel.read(discard);
+          if (read < 0) {
+            break;
+          }
+          pump.dropped(read);
+          dropped += read;
+          continue;
+        }
+        int read;
+        try {
+          read = channel.read(slot.buffer);
+        } catch (IOException e) {
+          pump.release(slot);
+          throw e;
+        }
+        if (read < 0) {
+          pump.release(slot);
+          break;
+        }
+        pump.submit(slot, target);
+        if (dropped > 0 && System.currentTimeMillis() - warned >= LogPump.WARNING_PERIOD_MILLIS) {
+          warnDropped(dropped);
+          dropped = 0;
+          warned = System.currentTimeMillis();
+        }
       }
     } catch (IOException ioe) {
       log.error("Stream redirect error", ioe);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (dropped > 0) {
+      warnDropped(dropped);
     }
   }
+
+  private void warnDropped(long bytes) {
+    log.warn("Dropped " + bytes + " bytes of process output while the log pump was full, "
+        + pump);
+  }
 }
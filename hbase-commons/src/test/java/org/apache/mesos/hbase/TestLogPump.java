@@ -0,0 +1,192 @@
+package org.apache.mesos.hbase;
+
+import org.apache.mesos.hbase.util.LogPump;
+import org.apache.mesos.hbase.util.StreamRedirect;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogPump {
+
+  private static final int CHUNK = 8192;
+  // the smallest ring there is, two buffers
+  private static final int TWO_SLOTS = 0;
+
+  @Test
+  public void dropsWhatDoesNotFitWhileTheWriterIsStuck() throws Exception {
+    GatedChannel target = new GatedChannel();
+    LogPump pump = new LogPump(target, target, TWO_SLOTS, LogPump.Overflow.DROP);
+
+    // one buffer is being written, the other waits, the rest is read and dropped
+    redirect(new ByteArrayInputStream(output(5 * CHUNK)), pump, target).join(5000);
+    assertEquals(3 * CHUNK, pump.getBytesDropped());
+
+    target.open();
+    waitForWritten(pump, 2 * CHUNK);
+    assertArrayEquals(Arrays.copyOf(output(5 * CHUNK), 2 * CHUNK), target.getWritten());
+    assertEquals(3 * CHUNK, pump.getBytesDropped());
+    assertEquals(0, pump.getWriteFailures());
+    assertEquals(2 * CHUNK + " bytes written, " + 3 * CHUNK + " bytes dropped, 0 failed writes",
+        pump.toString());
+  }
+
+  @Test
+  public void countsFailedWritesAndKeepsPumping() throws Exception {
+    FailingChannel target = new FailingChannel();
+    LogPump pump = new LogPump(target, target, TWO_SLOTS, LogPump.Overflow.BLOCK);
+
+    redirect(new ByteArrayInputStream(output(5 * CHUNK)), pump, target).join(5000);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (pump.getWriteFailures() < 5 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    // every buffer came back though none was written, the reader never got stuck
+    assertEquals(5, pump.getWriteFailures());
+    assertEquals(0, pump.getBytesWritten());
+    assertEquals(0, pump.getBytesDropped());
+  }
+
+  @Test
+  public void blocksTheReaderWhileTheWriterIsStuck() throws Exception {
+    GatedChannel target = new GatedChannel();
+    LogPump pump = new LogPump(target, target, TWO_SLOTS, LogPump.Overflow.BLOCK);
+    ByteArrayInputStream stream = new ByteArrayInputStream(output(5 * CHUNK));
+
+    StreamRedirect redirect = redirect(stream, pump, target);
+    Thread.sleep(200);
+    assertTrue(redirect.isAlive());
+    // nothing is read beyond the two buffers, the process would block on its pipe
+    assertEquals(3 * CHUNK, stream.available());
+
+    target.open();
+    redirect.join(5000);
+    assertFalse(redirect.isAlive());
+    waitForWritten(pump, 5 * CHUNK);
+    assertEquals(0, pump.getBytesDropped());
+    assertArrayEquals(output(5 * CHUNK), target.getWritten());
+  }
+
+  @Test
+  public void returnsBuffersAtEndOfStreamAndOnReadErrors() throws Exception {
+    GatedChannel target = new GatedChannel();
+    target.open();
+    LogPump pump = new LogPump(target, target, TWO_SLOTS, LogPump.Overflow.DROP);
+
+    for (int i = 0; i < 3; i++) {
+      redirect(new ByteArrayInputStream(new byte[0]), pump, target).join(5000);
+      redirect(new FailingInputStream(), pump, target).join(5000);
+    }
+
+    // a lost buffer would make the ring too small for two chunks
+    redirect(new ByteArrayInputStream(output(2 * CHUNK)), pump, target).join(5000);
+    waitForWritten(pump, 2 * CHUNK);
+    assertEquals(0, pump.getBytesDropped());
+  }
+
+  private StreamRedirect redirect(InputStream stream, LogPump pump, WritableByteChannel target) {
+    StreamRedirect redirect = new StreamRedirect(stream, pump, target);
+    redirect.start();
+    return redirect;
+  }
+
+  private void waitForWritten(LogPump pump, long bytes) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (pump.getBytesWritten() < bytes && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(bytes, pump.getBytesWritten());
+  }
+
+  private static byte[] output(int length) {
+    byte[] output = new byte[length];
+    for (int i = 0; i < length; i++) {
+      output[i] = (byte) ('a' + i % 26);
+    }
+    return output;
+  }
+
+  /**
+   * Keeps the pump's writer waiting until opened.
+   */
+  private static class GatedChannel implements WritableByteChannel {
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    void open() {
+      gate.countDown();
+    }
+
+    synchronized byte[] getWritten() {
+      return written.toByteArray();
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      try {
+        if (!gate.await(10, TimeUnit.SECONDS)) {
+          throw new IOException("Gate never opened");
+        }
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      int length = src.remaining();
+      byte[] bytes = new byte[length];
+      src.get(bytes);
+      synchronized (this) {
+        written.write(bytes, 0, length);
+      }
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static class FailingChannel implements WritableByteChannel {
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      throw new IOException("No space left on device");
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static class FailingInputStream extends InputStream {
+    @Override
+    public int read() throws IOException {
+      throw new IOException("Broken pipe");
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      throw new IOException("Broken pipe");
+    }
+  }
+}
@@ -12,6 +12,7 @@ import org.apache.mesos.MesosExecutorDriver;
 import org.apache.mesos.Protos.CommandInfo;
 import org.apache.mesos.Protos.ExecutorInfo;
 import org.apache.mesos.Protos.FrameworkInfo;
+import org.apache.mesos.Protos.HealthCheck;
 import org.apache.mesos.Protos.SlaveInfo;
 import org.apache.mesos.Protos.Status;
 import org.apache.mesos.Protos.TaskInfo;
@@ -19,7 +20,7 @@ import org.apache.mesos.Protos.TaskState;
 import org.apache.mesos.Protos.TaskStatus;
 import org.apache.mesos.hbase.file.FileUtils;
 import org.apache.mesos.hbase.util.HBaseConstants;
-import org.apache.mesos.hbase.util.StreamRedirect;
+import org.apache.mesos.hbase.util.LogPump;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -27,10 +28,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.mesos.hbase.config.ConfigMessage;
 import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
 
 /**
@@ -41,6 +49,11 @@ public abstract class AbstractNodeExecutor implements Executor {
   private final Log log = LogFactory.getLog(AbstractNodeExecutor.class);
   protected ExecutorInfo executorInfo;
   protected HBaseFrameworkConfig hbaseFrameworkConfig;
+  // config files are swapped into the sandbox's conf dir only when their version changed
+  private final ConfigFileFetcher configFileFetcher = new ConfigFileFetcher(new File("conf"));
+  private LogPump logPump;
+  // the name the region server registers with, its regions are moved off it by this name
+  private volatile String hostname;
 
   /**
    * Constructor which takes in configuration.
@@ -66,6 +79,7 @@ public abstract class AbstractNodeExecutor implements Executor {
   @Override
   public void registered(ExecutorDriver driver, ExecutorInfo executorInfo,
       FrameworkInfo frameworkInfo, SlaveInfo slaveInfo) {
+    hostname = slaveInfo.getHostname();
     // Set up data dir
     setUpDataDir();
     if (!hbaseFrameworkConfig.usingNativeHadoopBinaries()) {
@@ -182,6 +196,12 @@ public abstract class AbstractNodeExecutor implements Executor {
    * Starts a task's process so it goes into running state.
    */
   protected void startProcess(ExecutorDriver driver, Task task) {
+    // the fetch and the executor's start are done, lets the scheduler tell them apart from the
+    // time the node takes to start
+    driver.sendStatusUpdate(TaskStatus.newBuilder()
+        .setTaskId(task.getTaskInfo().getTaskId())
+        .setState(TaskState.TASK_STARTING)
+        .build());
     reloadConfig();
 
     File sandboxHbaseBinary = new File(System.getProperty("user.dir"));
@@ -189,79 +209,134 @@ public abstract class AbstractNodeExecutor implements Executor {
 
     log.info("The startProcess path is: " + sandboxHbaseBinaryPath);
 
-    if (task.getProcess() == null) {
-      try {
-        ProcessBuilder processBuilder = new ProcessBuilder("sh", "-c", task.getCmd());
-        task.setProcess(processBuilder.start());
-        redirectProcess(task.getProcess());
-        // send task success
-        driver.sendStatusUpdate(TaskStatus.newBuilder()
-            .setTaskId(task.getTaskInfo().getTaskId())
-            .setState(TaskState.TASK_RUNNING)
-            .setData(task.getTaskInfo().getData()).build());
-      } catch (IOException e) {
-        log.error("Unable to start process:", e);
-        task.getProcess().destroy();
-        // send task failed
-        sendTaskFailed(driver, task);
-      }
+    if (task.getSupervisor() == null) {
+      final String cmd = task.getCmd();
+      ProcessSupervisor supervisor = new ProcessSupervisor(driver, task,
+          new ProcessSupervisor.Launcher() {
+            @Override
+            public Process launch() throws IOException {
+              Process process = new ProcessBuilder("sh", "-c", cmd).start();
+              redirectProcess(process);
+              return process;
+            }
+          }, getReadinessProbe(task), getHealthMonitor(driver, task), hbaseFrameworkConfig);
+      task.setSupervisor(supervisor);
+      supervisor.start();
     } else {
       log.error("Tried to start process, but process already running");
     }
   }
 
+  /**
+   * Probes the task's health check, or if it has none the info port of masters and region servers
+   * and the REST port of stargate nodes.
+   */
+  private HttpProbe getReadinessProbe(Task task) {
+    TaskInfo taskInfo = task.getTaskInfo();
+    if (taskInfo.hasHealthCheck() && taskInfo.getHealthCheck().hasHttp()) {
+      HealthCheck healthCheck = taskInfo.getHealthCheck();
+      return createProbe(healthCheck.getHttp().getPort(), healthCheck.getHttp().getPath(),
+          (int) (healthCheck.getTimeoutSeconds() * 1000));
+    }
+    String taskId = taskInfo.getTaskId().getValue();
+    if (taskId.startsWith("task." + HBaseConstants.MASTER_NODE_ID + ".")) {
+      return createProbe(hbaseFrameworkConfig.getMasterInfoPort(), "/jmx",
+          HttpProbe.TIMEOUT_MILLIS);
+    } else if (taskId.startsWith("task." + HBaseConstants.SLAVE_NODE_ID + ".")) {
+      return createProbe(hbaseFrameworkConfig.getRegionServerInfoPort(), "/jmx",
+          HttpProbe.TIMEOUT_MILLIS);
+    } else if (taskId.startsWith("task." + HBaseConstants.STARGATE_NODE_ID + ".")) {
+      return createProbe(hbaseFrameworkConfig.getStargateServerPort(), "/version",
+          HttpProbe.TIMEOUT_MILLIS);
+    }
+    return null;
+  }
+
+  /**
+   * Runs the HTTP health check the task was launched with while it is running.
+   */
+  private HealthMonitor getHealthMonitor(ExecutorDriver driver, Task task) {
+    TaskInfo taskInfo = task.getTaskInfo();
+    if (!taskInfo.hasHealthCheck() || !taskInfo.getHealthCheck().hasHttp()) {
+      return null;
+    }
+    HttpProbe probe = getReadinessProbe(task);
+    return probe == null ? null
+        : new HealthMonitor(driver, task, probe, taskInfo.getHealthCheck());
+  }
+
+  private HttpProbe createProbe(int port, String path, int timeoutMillis) {
+    String url = "http://localhost:" + port + path;
+    try {
+      return new HttpProbe(new URL(url), timeoutMillis > 0 ? timeoutMillis
+          : HttpProbe.TIMEOUT_MILLIS);
+    } catch (MalformedURLException e) {
+      log.error("Invalid probe " + url, e);
+      return null;
+    }
+  }
+
   /**
    * Reloads the cluster configuration so the executor has the correct configuration info.
    */
   protected void reloadConfig() {
-    reloadConfig(HBaseConstants.HDFS_CONFIG_FILE_NAME);
-    reloadConfig(HBaseConstants.HBASE_CONFIG_FILE_NAME);
-    reloadConfig(HBaseConstants.REGION_SERVERS_FILENAME);
+    reloadConfig(HBaseConstants.HDFS_CONFIG_FILE_NAME,
+        HBaseConstants.HBASE_CONFIG_FILE_NAME,
+        HBaseConstants.REGION_SERVERS_FILENAME);
   }
 
-  protected void reloadConfig(String filename) 
+  /**
+   * Fetches the given config files in parallel, each one only if it changed.
+   */
+  protected void reloadConfig(String... filenames)
   {
     if (hbaseFrameworkConfig.usingNativeHadoopBinaries()) {
       return;
     }
-    // Find config URI
-    String configUri = "";
-    for (CommandInfo.URI uri : executorInfo.getCommand().getUrisList()) {
-      if (uri.getValue().contains(filename)) {
-        configUri = uri.getValue();
+    Map<String, String> configUris = new LinkedHashMap<>();
+    for (String filename : filenames) {
+      String configUri = findConfigUri(filename);
+      if (configUri == null) {
+        log.error("Couldn't find " + filename + " URI");
+      } else {
+        configUris.put(filename, configUri);
       }
     }
-    if (configUri.isEmpty()) {
-      log.error("Couldn't find hbase-site.xml URI");
-      return;
-    }
-    
+
     try {
-      log.info(String.format("Reloading "+filename+" from %s", configUri));
-      ProcessBuilder processBuilder = new ProcessBuilder("sh", "-c",
-        String.format("curl -o "+filename+" %s && mv "+filename+" conf/", configUri));
-      Process process = processBuilder.start();
-      //TODO(nicgrayson) check if the config has changed
-      redirectProcess(process);
-      int exitCode = process.waitFor();
-      if (exitCode == 0) {
-        log.info("Finished reloading hbase-site.xml, exited with status " + exitCode);
-      } else {
-        log.error("Error reloading hbase-site.xml.");
+      log.info("Reloading " + configUris);
+      configFileFetcher.fetchAll(configUris);
+      log.info("Finished reloading " + configUris.keySet());
+    } catch (ConfigFetchException e) {
+      log.error(String.format("Error reloading %s (status %d)", e.getFilename(),
+          e.getStatusCode()), e);
+    }
+  }
+
+  private String findConfigUri(String filename) {
+    String configUri = null;
+    for (CommandInfo.URI uri : executorInfo.getCommand().getUrisList()) {
+      if (uri.getValue().contains(filename)) {
+        configUri = uri.getValue();
       }
-    } catch (InterruptedException | IOException e) {
-      log.error("Caught exception", e);
     }
+    return configUri;
   }
 
   /**
    * Redirects a process to STDERR and STDOUT for logging and debugging purposes.
    */
   protected void redirectProcess(Process process) {
-    StreamRedirect stdoutRedirect = new StreamRedirect(process.getInputStream(), System.out);
-    stdoutRedirect.start();
-    StreamRedirect stderrRedirect = new StreamRedirect(process.getErrorStream(), System.err);
-    stderrRedirect.start();
+    getLogPump().redirect(process);
+  }
+
+  private synchronized LogPump getLogPump() {
+    if (logPump == null) {
+      logPump = new LogPump(hbaseFrameworkConfig.getExecutorLogBuffer() * 1024,
+          hbaseFrameworkConfig.dropExecutorLogOverflow()
+              ? LogPump.Overflow.DROP : LogPump.Overflow.BLOCK);
+    }
+    return logPump;
   }
 
   /**
@@ -279,16 +354,12 @@ public abstract class AbstractNodeExecutor implements Executor {
         log.info("Finished running command, exited with status " + exitCode);
       } else {
         log.error("Unable to run command: " + command);
-        if (task.getProcess() != null) {
-          task.getProcess().destroy();
-        }
+        stopProcess(task);
         sendTaskFailed(driver, task);
       }
     } catch (InterruptedException | IOException e) {
       log.error("Unable to run command:", e);
-      if (task.getProcess() != null) {
-        task.getProcess().destroy();
-      }
+      stopProcess(task);
       sendTaskFailed(driver, task);
     }
   }
@@ -298,6 +369,60 @@ public abstract class AbstractNodeExecutor implements Executor {
    */
   public abstract void launchTask(final ExecutorDriver driver, final TaskInfo taskInfo);
 
+  /**
+   * Destroys the task's process, it is not restarted anymore.
+   */
+  protected void stopProcess(Task task) {
+    if (task.getSupervisor() != null) {
+      task.getSupervisor().stop();
+    } else if (task.getProcess() != null) {
+      task.getProcess().destroy();
+    }
+    synchronized (this) {
+      if (logPump != null) {
+        log.info("Process output so far: " + logPump);
+      }
+    }
+  }
+
+  /**
+   * Whether the task is a running region server whose regions are moved off before it is stopped.
+   * An unhealthy one is stopped right away, it is likely killed for not serving and moving its
+   * regions would just take up the drain timeout.
+   */
+  protected boolean isDrainable(Task task) {
+    return hbaseFrameworkConfig.drainRegionServers() && hostname != null
+        && task.getProcess() != null
+        && (task.getSupervisor() == null || task.getSupervisor().isHealthy())
+        && task.getTaskInfo().getTaskId().getValue()
+            .startsWith("task." + HBaseConstants.SLAVE_NODE_ID + ".");
+  }
+
+  /**
+   * Moves the regions off the task's region server on a thread of its own, then runs stop.
+   */
+  protected void drainProcess(ExecutorDriver driver, Task task, Runnable stop) {
+    final String[] command = {
+        "bin/hbase", "org.jruby.Main", "bin/region_mover.rb",
+        "--maxthreads=" + hbaseFrameworkConfig.getDrainThreads(), "unload", hostname};
+    URL jmx;
+    try {
+      jmx = new URL("http://localhost:" + hbaseFrameworkConfig.getRegionServerInfoPort()
+          + "/jmx?qry=Hadoop:service=HBase,name=RegionServer,sub=Server");
+    } catch (MalformedURLException e) {
+      throw new ExecutorException("Invalid region server info port", e);
+    }
+    new RegionDrainer(driver, task, new ProcessSupervisor.Launcher() {
+      @Override
+      public Process launch() throws IOException {
+        log.info("About to run command: " + StringUtils.join(command, ' '));
+        Process process = new ProcessBuilder(command).start();
+        redirectProcess(process);
+        return process;
+      }
+    }, jmx, stop, hbaseFrameworkConfig).start();
+  }
+
   /**
    * Let the scheduler know that the task has failed.
    */
@@ -310,6 +435,7 @@ public abstract class AbstractNodeExecutor implements Executor {
 
   @Override
   public void reregistered(ExecutorDriver driver, SlaveInfo slaveInfo) {
+    hostname = slaveInfo.getHostname();
     log.info("Executor reregistered with the slave");
   }
 
@@ -320,11 +446,50 @@ public abstract class AbstractNodeExecutor implements Executor {
 
   @Override
   public void frameworkMessage(ExecutorDriver driver, byte[] msg) {
+    if (ConfigMessage.isConfigMessage(msg)) {
+      log.info(String.format("Executor received config message (%d bytes)", msg.length));
+      applyConfigMessage(msg);
+      return;
+    }
     reloadConfig();
     String messageStr = new String(msg, Charset.defaultCharset());
     log.info("Executor received framework message: " + messageStr);
   }
 
+  /**
+   * Writes the files pushed by the scheduler. A file sent without content is expected to be on
+   * disk already in the listed version, if it isn't (e.g. an earlier message got lost) it's
+   * fetched from the config server.
+   */
+  private void applyConfigMessage(byte[] msg) {
+    if (hbaseFrameworkConfig.usingNativeHadoopBinaries()) {
+      return;
+    }
+    ConfigMessage message;
+    try {
+      message = ConfigMessage.decode(msg);
+    } catch (IOException e) {
+      log.error("Unable to read config message, fetching config instead", e);
+      reloadConfig();
+      return;
+    }
+    List<String> staleFiles = new ArrayList<>();
+    for (ConfigMessage.ConfigFile file : message.getFiles()) {
+      if (file.getContent() != null) {
+        try {
+          configFileFetcher.write(file.getName(), file.getVersion(), file.getContent());
+        } catch (IOException e) {
+          log.error("Error writing " + file.getName(), e);
+        }
+      } else if (!file.getVersion().equals(configFileFetcher.getVersion(file.getName()))) {
+        staleFiles.add(file.getName());
+      }
+    }
+    if (!staleFiles.isEmpty()) {
+      reloadConfig(staleFiles.toArray(new String[staleFiles.size()]));
+    }
+  }
+
   @Override
   public void error(ExecutorDriver driver, String message) {
     log.error(this.getClass().getName() + ".error: " + message);
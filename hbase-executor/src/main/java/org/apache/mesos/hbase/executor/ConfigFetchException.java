@@ -0,0 +1,33 @@
+package org.apache.mesos.hbase.executor;
+
+/**
+ * Fetching a config file from the scheduler's config server failed.
+ */
+public class ConfigFetchException extends ExecutorException {
+
+  private final String filename;
+  private final int statusCode;
+
+  public ConfigFetchException(String filename, int statusCode, String message) {
+    super(message);
+    this.filename = filename;
+    this.statusCode = statusCode;
+  }
+
+  public ConfigFetchException(String filename, String message, Throwable cause) {
+    super(message, cause);
+    this.filename = filename;
+    this.statusCode = -1;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  /**
+   * @return the HTTP status the config server answered with or -1 if there was no answer
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+}
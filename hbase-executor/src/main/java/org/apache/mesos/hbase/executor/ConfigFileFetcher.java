@@ -0,0 +1,187 @@
+package org.apache.mesos.hbase.executor;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Downloads config files from the scheduler's config server or writes the ones pushed by the
+ * scheduler. Remembers the version (ETag) of every file it has, and asks for it conditionally, so
+ * a file is only downloaded and replaced when its content changed.
+ *
+ * Several files are fetched in parallel. Every response is read to the end and closed, never
+ * disconnected, so the JDK keeps the connections to the config server alive and reuses them.
+ */
+class ConfigFileFetcher {
+
+  private final Log log = LogFactory.getLog(ConfigFileFetcher.class);
+
+  private static final int FETCH_THREADS = 3;
+  private static final int TIMEOUT_MILLIS = 10000;
+
+  private final File confDir;
+  private final Map<String, String> versions = new ConcurrentHashMap<>();
+  private final ExecutorService executor = Executors.newFixedThreadPool(FETCH_THREADS,
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "config-fetcher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  ConfigFileFetcher(File confDir) {
+    this.confDir = confDir;
+  }
+
+  /**
+   * Fetches all files at once and waits for them.
+   *
+   * @param configUris file name to the URI it is served at
+   * @throws ConfigFetchException for the first file that failed, after all others are done
+   */
+  void fetchAll(Map<String, String> configUris) throws ConfigFetchException {
+    Map<String, Future<Boolean>> fetches = new LinkedHashMap<>();
+    for (final Map.Entry<String, String> configUri : configUris.entrySet()) {
+      fetches.put(configUri.getKey(), executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return fetch(configUri.getKey(), configUri.getValue());
+        }
+      }));
+    }
+
+    ConfigFetchException failure = null;
+    for (Map.Entry<String, Future<Boolean>> fetch : fetches.entrySet()) {
+      try {
+        fetch.getValue().get();
+      } catch (ExecutionException e) {
+        ConfigFetchException cause = e.getCause() instanceof ConfigFetchException
+            ? (ConfigFetchException) e.getCause()
+            : new ConfigFetchException(fetch.getKey(), "Fetching " + fetch.getKey() + " failed",
+                e.getCause());
+        log.error(cause.getMessage(), cause);
+        if (failure == null) {
+          failure = cause;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ConfigFetchException(fetch.getKey(), "Interrupted fetching " + fetch.getKey(),
+            e);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * @return whether the file changed
+   */
+  boolean fetch(String filename, String configUri) throws ConfigFetchException {
+    File target = new File(confDir, filename);
+    HttpURLConnection connection = null;
+    InputStream in = null;
+    try {
+      connection = (HttpURLConnection) new URL(configUri).openConnection();
+      connection.setConnectTimeout(TIMEOUT_MILLIS);
+      connection.setReadTimeout(TIMEOUT_MILLIS);
+      String version = versions.get(filename);
+      if (version != null && target.exists()) {
+        connection.setRequestProperty("If-None-Match", version);
+      }
+
+      int status = connection.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        in = connection.getInputStream();
+        log.info(String.format("%s is up to date (%s)", filename, version));
+        return false;
+      }
+      if (status != HttpURLConnection.HTTP_OK) {
+        in = connection.getErrorStream();
+        throw new ConfigFetchException(filename, status, String.format(
+            "Fetching %s from %s failed with status %d", filename, configUri, status));
+      }
+
+      in = connection.getInputStream();
+      replace(filename, in, connection.getHeaderField("ETag"));
+      log.info(String.format("Fetched %s version %s", filename, versions.get(filename)));
+      return true;
+    } catch (IOException e) {
+      throw new ConfigFetchException(filename, String.format("Fetching %s from %s failed",
+          filename, configUri), e);
+    } finally {
+      drainAndClose(in);
+    }
+  }
+
+  /**
+   * Replaces a file with content pushed by the scheduler.
+   */
+  void write(String filename, String version, byte[] content) throws IOException {
+    replace(filename, new ByteArrayInputStream(content), version);
+    log.info(String.format("Wrote %s version %s", filename, version));
+  }
+
+  /**
+   * @return the version of the file in the conf dir or null if not known
+   */
+  String getVersion(String filename) {
+    return new File(confDir, filename).exists() ? versions.get(filename) : null;
+  }
+
+  private void replace(String filename, InputStream content, String version) throws IOException {
+    // write next to the target and swap it in, so readers never see a partial file
+    Files.createDirectories(confDir.toPath());
+    Path temp = Files.createTempFile(confDir.toPath(), filename, ".tmp");
+    try {
+      Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(temp, new File(confDir, filename).toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+
+    if (version == null) {
+      versions.remove(filename);
+    } else {
+      versions.put(filename, version);
+    }
+  }
+
+  /**
+   * A connection goes back to the keep-alive cache only once its response was read completely.
+   */
+  private void drainAndClose(InputStream in) {
+    if (in == null) {
+      return;
+    }
+    try {
+      IOUtils.skip(in, Long.MAX_VALUE);
+    } catch (IOException e) {
+      log.debug("Unable to drain response", e);
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package org.apache.mesos.hbase.executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.ExecutorDriver;
+import org.apache.mesos.Protos.HealthCheck;
+import org.apache.mesos.Protos.TaskState;
+import org.apache.mesos.Protos.TaskStatus;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the health check of a running task, which Mesos does not do for tasks of custom executors.
+ * The task is reported unhealthy once the probe failed the check's consecutive failures in a row,
+ * and healthy again when it passes.
+ */
+class HealthMonitor {
+  private final Log log = LogFactory.getLog(HealthMonitor.class);
+
+  private final ExecutorDriver driver;
+  private final Task task;
+  private final HttpProbe probe;
+  private final HealthCheck healthCheck;
+  private final ScheduledExecutorService executor;
+
+  // only used by the executor's thread
+  private int failures;
+  // also read when the task is killed
+  private volatile boolean healthy = true;
+
+  HealthMonitor(ExecutorDriver driver, Task task, HttpProbe probe, HealthCheck healthCheck) {
+    this.driver = driver;
+    this.task = task;
+    this.probe = probe;
+    this.healthCheck = healthCheck;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "health-monitor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  void start() {
+    long interval = (long) (healthCheck.getIntervalSeconds() * 1000);
+    long delay = (long) (healthCheck.getDelaySeconds() * 1000);
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        check();
+      }
+    }, Math.max(delay, interval), Math.max(1, interval), TimeUnit.MILLISECONDS);
+  }
+
+  void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return false while the task is reported unhealthy
+   */
+  boolean isHealthy() {
+    return healthy;
+  }
+
+  private void check() {
+    if (probe.probe()) {
+      failures = 0;
+      if (!healthy) {
+        healthy = true;
+        log.info(probe + " passes again");
+        sendHealth(true, probe + " passes again");
+      }
+      return;
+    }
+    failures++;
+    if (healthy && failures >= Math.max(1, healthCheck.getConsecutiveFailures())) {
+      healthy = false;
+      String message = String.format("%s failed %d times in a row", probe, failures);
+      log.warn(message);
+      sendHealth(false, message);
+    }
+  }
+
+  private void sendHealth(boolean healthy, String message) {
+    driver.sendStatusUpdate(TaskStatus.newBuilder()
+        .setTaskId(task.getTaskInfo().getTaskId())
+        .setState(TaskState.TASK_RUNNING)
+        .setHealthy(healthy)
+        .setMessage(message)
+        .setData(task.getTaskInfo().getData())
+        .build());
+  }
+}
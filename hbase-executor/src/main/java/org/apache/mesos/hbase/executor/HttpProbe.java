@@ -0,0 +1,49 @@
+package org.apache.mesos.hbase.executor;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Checks whether a node serves an HTTP endpoint, e.g. the JMX servlet on its info port.
+ */
+class HttpProbe {
+
+  static final int TIMEOUT_MILLIS = 2000;
+
+  private final URL url;
+  private final int timeoutMillis;
+
+  HttpProbe(URL url) {
+    this(url, TIMEOUT_MILLIS);
+  }
+
+  HttpProbe(URL url, int timeoutMillis) {
+    this.url = url;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * @return whether the endpoint answered with a 2xx status
+   */
+  boolean probe() {
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) url.openConnection();
+      connection.setConnectTimeout(timeoutMillis);
+      connection.setReadTimeout(timeoutMillis);
+      return connection.getResponseCode() / 100 == 2;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return url.toString();
+  }
+}
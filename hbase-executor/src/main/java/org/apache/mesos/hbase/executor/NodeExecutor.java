@@ -20,6 +20,8 @@ import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
 public class NodeExecutor extends AbstractNodeExecutor {
   private final Log log = LogFactory.getLog(NodeExecutor.class);
   private Task task;
+  // set while a killed region server's regions are moved off it
+  private boolean draining;
 
   /**
    * The constructor for the node which saves the configuration.
@@ -50,11 +52,38 @@ public class NodeExecutor extends AbstractNodeExecutor {
   }
 
   @Override
-  public void killTask(ExecutorDriver driver, TaskID taskId) {
+  public void killTask(final ExecutorDriver driver, final TaskID taskId) {
     log.info("Killing task : " + taskId.getValue());
-    if (task.getProcess() != null && taskId.equals(task.getTaskInfo().getTaskId())) {
-      task.getProcess().destroy();
-      task.setProcess(null);
+    if (task != null && taskId.equals(task.getTaskInfo().getTaskId())) {
+      synchronized (this) {
+        if (draining) {
+          log.info("Task " + taskId.getValue() + " is already being drained");
+          return;
+        }
+        if (isDrainable(task)) {
+          draining = true;
+          drainProcess(driver, task, new Runnable() {
+            @Override
+            public void run() {
+              stopTask(driver, taskId);
+            }
+          });
+          return;
+        }
+      }
+    }
+    stopTask(driver, taskId);
+  }
+
+  /**
+   * Destroys the task's process right away and reports it killed.
+   */
+  private void stopTask(ExecutorDriver driver, TaskID taskId) {
+    synchronized (this) {
+      if (task != null && taskId.equals(task.getTaskInfo().getTaskId())) {
+        stopProcess(task);
+        task.setProcess(null);
+      }
     }
     driver.sendStatusUpdate(TaskStatus.newBuilder()
         .setTaskId(taskId)
@@ -67,7 +96,8 @@ public class NodeExecutor extends AbstractNodeExecutor {
     // TODO(elingg) let's shut down the driver more gracefully
     log.info("Executor asked to shutdown");
     if (task != null) {
-      killTask(d, task.getTaskInfo().getTaskId());
+      // the slave kills the executor after its grace period, too short to move the regions
+      stopTask(d, task.getTaskInfo().getTaskId());
     }
   }
 }
@@ -0,0 +1,189 @@
+package org.apache.mesos.hbase.executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.ExecutorDriver;
+import org.apache.mesos.Protos.TaskState;
+import org.apache.mesos.Protos.TaskStatus;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+
+import java.io.IOException;
+
+/**
+ * Runs a task's process on a thread of its own. The task is reported running once the process
+ * passes its readiness probe. When the process exits it is restarted after a backoff doubled on
+ * every restart in a row, after too many of them the task is failed with the last exit.
+ */
+class ProcessSupervisor implements Runnable {
+  private final Log log = LogFactory.getLog(ProcessSupervisor.class);
+
+  /**
+   * Starts the process, with its output redirected.
+   */
+  interface Launcher {
+    Process launch() throws IOException;
+  }
+
+  private final ExecutorDriver driver;
+  private final Task task;
+  private final Launcher launcher;
+  private final HttpProbe readiness;
+  private final HealthMonitor health;
+  private final long backoffMillis;
+  private final long maxBackoffMillis;
+  private final int maxRestarts;
+  private final long probeIntervalMillis;
+  private final Thread thread;
+  private volatile boolean stopped;
+
+  /**
+   * @param readiness null to report the task running as soon as the process started
+   * @param health null if the task is not health checked once running
+   */
+  ProcessSupervisor(ExecutorDriver driver, Task task, Launcher launcher, HttpProbe readiness,
+      HealthMonitor health, HBaseFrameworkConfig config) {
+    this.driver = driver;
+    this.task = task;
+    this.launcher = launcher;
+    this.readiness = readiness;
+    this.health = health;
+    this.backoffMillis = Math.max(1, config.getExecutorRestartBackoff());
+    this.maxBackoffMillis = Math.max(backoffMillis, config.getExecutorMaxRestartBackoff());
+    this.maxRestarts = config.getExecutorMaxRestarts();
+    this.probeIntervalMillis = config.getReadinessProbeInterval();
+    this.thread = new Thread(this, "process-supervisor");
+    thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Leaves the process running, but neither health checks it nor restarts it anymore, e.g. while
+   * it is being drained before it is stopped.
+   */
+  void stopRestarting() {
+    stopped = true;
+    if (health != null) {
+      health.stop();
+    }
+  }
+
+  /**
+   * Destroys the process without restarting it.
+   */
+  void stop() {
+    stopRestarting();
+    thread.interrupt();
+    Process process = task.getProcess();
+    if (process != null) {
+      process.destroy();
+    }
+  }
+
+  /**
+   * @return false while the task is reported unhealthy, true if it is not health checked
+   */
+  boolean isHealthy() {
+    return health == null || health.isHealthy();
+  }
+
+  @Override
+  public void run() {
+    boolean running = false;
+    int restarts = 0;
+    long backoff = backoffMillis;
+    try {
+      while (!stopped) {
+        String exit;
+        long started = System.currentTimeMillis();
+        try {
+          Process process = launcher.launch();
+          task.setProcess(process);
+          if (stopped) {
+            // stopped while the process was being started
+            process.destroy();
+            return;
+          }
+          if (!running) {
+            running = awaitReady(process);
+          }
+          exit = "exited with code " + process.waitFor();
+        } catch (IOException e) {
+          log.error("Unable to start process:", e);
+          exit = "could not be started: " + e.getMessage();
+        }
+        if (stopped) {
+          return;
+        }
+        if (System.currentTimeMillis() - started >= maxBackoffMillis) {
+          // it ran fine for a while, this is not a restart loop
+          restarts = 0;
+          backoff = backoffMillis;
+        }
+        if (restarts >= maxRestarts) {
+          String message = String.format("Process of %s %s, gave up after %d restarts",
+              task.getTaskInfo().getTaskId().getValue(), exit, restarts);
+          log.error(message);
+          if (health != null) {
+            health.stop();
+          }
+          sendStatus(TaskState.TASK_FAILED, message);
+          return;
+        }
+        restarts++;
+        log.warn(String.format("Process of %s %s, restarting in %d ms (restart %d of %d)",
+            task.getTaskInfo().getTaskId().getValue(), exit, backoff, restarts, maxRestarts));
+        Thread.sleep(backoff);
+        backoff = Math.min(backoff * 2, maxBackoffMillis);
+      }
+    } catch (InterruptedException e) {
+      if (!stopped) {
+        log.error("Process supervisor interrupted", e);
+      }
+    }
+  }
+
+  /**
+   * Probes the process until it is ready and reports the task running.
+   *
+   * @return false if the process exited or was stopped before being ready
+   */
+  private boolean awaitReady(Process process) throws InterruptedException {
+    if (readiness != null) {
+      log.info("Waiting for " + readiness + " to be served");
+      while (!readiness.probe()) {
+        if (stopped || !isAlive(process)) {
+          return false;
+        }
+        Thread.sleep(probeIntervalMillis);
+      }
+    }
+    sendStatus(TaskState.TASK_RUNNING, null);
+    if (health != null) {
+      health.start();
+    }
+    return true;
+  }
+
+  private void sendStatus(TaskState state, String message) {
+    TaskStatus.Builder status = TaskStatus.newBuilder()
+        .setTaskId(task.getTaskInfo().getTaskId())
+        .setState(state)
+        .setData(task.getTaskInfo().getData());
+    if (message != null) {
+      status.setMessage(message);
+    }
+    driver.sendStatusUpdate(status.build());
+  }
+
+  private static boolean isAlive(Process process) {
+    try {
+      process.exitValue();
+      return false;
+    } catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+}
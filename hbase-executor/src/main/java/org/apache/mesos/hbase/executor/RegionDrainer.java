@@ -0,0 +1,158 @@
+package org.apache.mesos.hbase.executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.ExecutorDriver;
+import org.apache.mesos.Protos.TaskState;
+import org.apache.mesos.Protos.TaskStatus;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stops a region server gracefully: its regions are moved to the other region servers by HBase's
+ * region mover before the process is stopped, so they stay online instead of waiting for its WAL
+ * to be split. While the regions move the task is reported running with the regions it still
+ * hosts. The process is stopped anyway once the drain failed or timed out.
+ */
+class RegionDrainer implements Runnable {
+  private final Log log = LogFactory.getLog(RegionDrainer.class);
+
+  private static final long POLL_MILLIS = 500;
+  private static final Pattern REGION_COUNT = Pattern.compile("\"regionCount\"\\s*:\\s*(\\d+)");
+
+  private final ExecutorDriver driver;
+  private final Task task;
+  private final ProcessSupervisor.Launcher mover;
+  private final URL regionServerJmx;
+  private final Runnable stop;
+  private final long timeoutMillis;
+  private final long progressMillis;
+
+  /**
+   * @param mover starts the region mover unloading the region server
+   * @param regionServerJmx the region server's JMX bean reporting its region count
+   * @param stop stops the process and reports the task killed
+   */
+  RegionDrainer(ExecutorDriver driver, Task task, ProcessSupervisor.Launcher mover,
+      URL regionServerJmx, Runnable stop, HBaseFrameworkConfig config) {
+    this.driver = driver;
+    this.task = task;
+    this.mover = mover;
+    this.regionServerJmx = regionServerJmx;
+    this.stop = stop;
+    this.timeoutMillis = config.getDrainTimeout() * 1000L;
+    this.progressMillis = Math.max(1, config.getDrainProgressInterval()) * 1000L;
+  }
+
+  void start() {
+    Thread thread = new Thread(this, "region-drainer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void run() {
+    String taskId = task.getTaskInfo().getTaskId().getValue();
+    if (task.getSupervisor() != null) {
+      task.getSupervisor().stopRestarting();
+    }
+    try {
+      log.info("Moving the regions off " + taskId);
+      sendProgress("Moving regions off the region server");
+      Process process = mover.launch();
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      long nextProgress = System.currentTimeMillis() + progressMillis;
+      while (isAlive(process)) {
+        long now = System.currentTimeMillis();
+        if (now >= deadline) {
+          log.warn(String.format("Regions of %s did not move within %d s, stopping it anyway",
+              taskId, timeoutMillis / 1000));
+          process.destroy();
+          break;
+        }
+        if (now >= nextProgress) {
+          nextProgress = now + progressMillis;
+          int regions = getRegionCount();
+          if (regions >= 0) {
+            sendProgress(String.format("Moving regions off the region server, %d left",
+                regions));
+          }
+        }
+        Thread.sleep(Math.min(POLL_MILLIS, deadline - now));
+      }
+      if (!isAlive(process)) {
+        int exitCode = process.exitValue();
+        if (exitCode == 0) {
+          log.info("Moved the regions off " + taskId);
+        } else {
+          log.error(String.format("Region mover of %s exited with code %d, stopping it anyway",
+              taskId, exitCode));
+        }
+      }
+    } catch (IOException e) {
+      log.error("Unable to move the regions off " + taskId + ", stopping it anyway", e);
+    } catch (InterruptedException e) {
+      log.error("Region drainer interrupted", e);
+    } finally {
+      stop.run();
+    }
+  }
+
+  /**
+   * @return the regions the region server still hosts, -1 if it did not tell
+   */
+  private int getRegionCount() {
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) regionServerJmx.openConnection();
+      connection.setConnectTimeout(HttpProbe.TIMEOUT_MILLIS);
+      connection.setReadTimeout(HttpProbe.TIMEOUT_MILLIS);
+      if (connection.getResponseCode() / 100 != 2) {
+        return -1;
+      }
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try (InputStream in = connection.getInputStream()) {
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+          body.write(buffer, 0, read);
+        }
+      }
+      Matcher matcher = REGION_COUNT.matcher(new String(body.toByteArray(),
+          StandardCharsets.UTF_8));
+      return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    } catch (IOException e) {
+      return -1;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  private void sendProgress(String message) {
+    driver.sendStatusUpdate(TaskStatus.newBuilder()
+        .setTaskId(task.getTaskInfo().getTaskId())
+        .setState(TaskState.TASK_RUNNING)
+        .setMessage(message)
+        .setData(task.getTaskInfo().getData())
+        .build());
+  }
+
+  private static boolean isAlive(Process process) {
+    try {
+      process.exitValue();
+      return false;
+    } catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+}
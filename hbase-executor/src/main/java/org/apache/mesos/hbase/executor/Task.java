@@ -9,7 +9,8 @@ public class Task {
 
   private Protos.TaskInfo taskInfo;
   private String cmd;
-  private Process process;
+  private volatile Process process;
+  private ProcessSupervisor supervisor;
 
   public Task(Protos.TaskInfo taskInfo) {
     this.taskInfo = taskInfo;
@@ -32,6 +33,17 @@ public class Task {
     this.process = process;
   }
 
+  /**
+   * @return the supervisor running the task's process, null if it was not started
+   */
+  ProcessSupervisor getSupervisor() {
+    return supervisor;
+  }
+
+  void setSupervisor(ProcessSupervisor supervisor) {
+    this.supervisor = supervisor;
+  }
+
   public Protos.TaskInfo getTaskInfo() {
     return taskInfo;
   }
@@ -0,0 +1,75 @@
+package org.apache.mesos.hbase.executor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process which runs until it is told to exit or is destroyed.
+ */
+class FakeProcess extends Process {
+  static final int DESTROYED_EXIT_CODE = 143;
+
+  private final CountDownLatch exited = new CountDownLatch(1);
+  private volatile int exitCode;
+  private volatile boolean destroyed;
+
+  static FakeProcess exited(int exitCode) {
+    FakeProcess process = new FakeProcess();
+    process.exit(exitCode);
+    return process;
+  }
+
+  synchronized void exit(int code) {
+    if (exited.getCount() > 0) {
+      exitCode = code;
+      exited.countDown();
+    }
+  }
+
+  boolean isDestroyed() {
+    return destroyed;
+  }
+
+  boolean awaitExit(long millis) throws InterruptedException {
+    return exited.await(millis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return new ByteArrayOutputStream();
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return new ByteArrayInputStream(new byte[0]);
+  }
+
+  @Override
+  public InputStream getErrorStream() {
+    return new ByteArrayInputStream(new byte[0]);
+  }
+
+  @Override
+  public int waitFor() throws InterruptedException {
+    exited.await();
+    return exitCode;
+  }
+
+  @Override
+  public int exitValue() {
+    if (exited.getCount() > 0) {
+      throw new IllegalThreadStateException("process hasn't exited");
+    }
+    return exitCode;
+  }
+
+  @Override
+  public void destroy() {
+    destroyed = true;
+    exit(DESTROYED_EXIT_CODE);
+  }
+}
@@ -0,0 +1,146 @@
+package org.apache.mesos.hbase.executor;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mesos.ExecutorDriver;
+import org.apache.mesos.Protos;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.apache.mesos.hbase.executor.TestProcessSupervisor.createTaskInfo;
+import static org.apache.mesos.hbase.executor.TestProcessSupervisor.launcherOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class TestNodeExecutor {
+
+  private final ExecutorDriver driver = mock(ExecutorDriver.class);
+  private final Protos.TaskInfo taskInfo = createTaskInfo();
+  private final FakeProcess process = new FakeProcess();
+  private DrainRecordingExecutor executor;
+
+  @Before
+  public void setup() {
+    executor = new DrainRecordingExecutor(new HBaseFrameworkConfig(new Configuration()));
+    executor.reregistered(driver, Protos.SlaveInfo.newBuilder().setHostname("host1").build());
+  }
+
+  @Test
+  public void drainsARegionServerBeforeStoppingIt() {
+    executor.launchTask(driver, taskInfo);
+
+    executor.killTask(driver, taskInfo.getTaskId());
+    assertEquals(1, executor.drains.size());
+    assertFalse(process.isDestroyed());
+    verify(driver, never()).sendStatusUpdate(argThat(hasState(Protos.TaskState.TASK_KILLED)));
+
+    executor.drains.get(0).run();
+    assertTrue(process.isDestroyed());
+    verify(driver).sendStatusUpdate(argThat(hasState(Protos.TaskState.TASK_KILLED)));
+  }
+
+  @Test
+  public void ignoresAnotherKillWhileDraining() {
+    executor.launchTask(driver, taskInfo);
+
+    executor.killTask(driver, taskInfo.getTaskId());
+    executor.killTask(driver, taskInfo.getTaskId());
+
+    assertEquals(1, executor.drains.size());
+    assertFalse(process.isDestroyed());
+    verify(driver, never()).sendStatusUpdate(argThat(hasState(Protos.TaskState.TASK_KILLED)));
+  }
+
+  @Test
+  public void shutdownStopsTheRegionServerWithoutDraining() {
+    executor.launchTask(driver, taskInfo);
+
+    executor.shutdown(driver);
+
+    assertTrue(executor.drains.isEmpty());
+    assertTrue(process.isDestroyed());
+    verify(driver).sendStatusUpdate(argThat(hasState(Protos.TaskState.TASK_KILLED)));
+  }
+
+  @Test
+  public void stopsAnUnhealthyRegionServerWithoutDraining() {
+    executor.healthChecked = true;
+    executor.launchTask(driver, taskInfo);
+    // running, then unhealthy
+    verify(driver, timeout(2000).times(2)).sendStatusUpdate(any(Protos.TaskStatus.class));
+    verify(driver).sendStatusUpdate(argThat(isUnhealthy()));
+
+    executor.killTask(driver, taskInfo.getTaskId());
+
+    assertTrue(executor.drains.isEmpty());
+    assertTrue(process.isDestroyed());
+    verify(driver).sendStatusUpdate(argThat(hasState(Protos.TaskState.TASK_KILLED)));
+  }
+
+  private static ArgumentMatcher<Protos.TaskStatus> hasState(final Protos.TaskState state) {
+    return new ArgumentMatcher<Protos.TaskStatus>() {
+      @Override
+      public boolean matches(Object status) {
+        return ((Protos.TaskStatus) status).getState() == state;
+      }
+    };
+  }
+
+  private static ArgumentMatcher<Protos.TaskStatus> isUnhealthy() {
+    return new ArgumentMatcher<Protos.TaskStatus>() {
+      @Override
+      public boolean matches(Object status) {
+        return ((Protos.TaskStatus) status).hasHealthy()
+            && !((Protos.TaskStatus) status).getHealthy();
+      }
+    };
+  }
+
+  /**
+   * Runs the fake process instead of the node and records the drains instead of moving regions.
+   */
+  private class DrainRecordingExecutor extends NodeExecutor {
+    final List<Runnable> drains = Collections.synchronizedList(new ArrayList<Runnable>());
+    boolean healthChecked;
+
+    DrainRecordingExecutor(HBaseFrameworkConfig config) {
+      super(config);
+    }
+
+    @Override
+    protected void startProcess(ExecutorDriver driver, Task task) {
+      if (!healthChecked) {
+        task.setProcess(process);
+        return;
+      }
+      // fails its health check right away
+      HealthMonitor health = new HealthMonitor(driver, task, new TestProcessSupervisor.FakeProbe(),
+          Protos.HealthCheck.newBuilder()
+              .setDelaySeconds(0)
+              .setIntervalSeconds(0.01)
+              .setConsecutiveFailures(1)
+              .build());
+      ProcessSupervisor supervisor = new ProcessSupervisor(driver, task, launcherOf(process), null,
+          health, hbaseFrameworkConfig);
+      task.setSupervisor(supervisor);
+      supervisor.start();
+    }
+
+    @Override
+    protected void drainProcess(ExecutorDriver driver, Task task, Runnable stop) {
+      drains.add(stop);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package org.apache.mesos.hbase.executor;
+
+import com.google.protobuf.ByteString;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mesos.ExecutorDriver;
+import org.apache.mesos.Protos;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class TestProcessSupervisor {
+
+  private final ExecutorDriver driver = mock(ExecutorDriver.class);
+  private final Task task = new Task(createTaskInfo());
+
+  @Test
+  public void doublesTheBackoffUpToItsCapAndFailsTheTaskAfterMaxRestarts() throws Exception {
+    final List<Long> launches = Collections.synchronizedList(new ArrayList<Long>());
+    ProcessSupervisor supervisor = new ProcessSupervisor(driver, task,
+        new ProcessSupervisor.Launcher() {
+          @Override
+          public Process launch() {
+            launches.add(System.currentTimeMillis());
+            return FakeProcess.exited(1);
+          }
+        }, null, null, createConfig(100, 400, 4));
+
+    supervisor.start();
+
+    ArgumentCaptor<Protos.TaskStatus> statuses = ArgumentCaptor.forClass(Protos.TaskStatus.class);
+    verify(driver, timeout(5000).times(2)).sendStatusUpdate(statuses.capture());
+    assertEquals(Protos.TaskState.TASK_RUNNING, statuses.getAllValues().get(0).getState());
+    Protos.TaskStatus failed = statuses.getAllValues().get(1);
+    assertEquals(Protos.TaskState.TASK_FAILED, failed.getState());
+    assertTrue(failed.getMessage(), failed.getMessage().contains("exited with code 1"));
+    assertTrue(failed.getMessage(), failed.getMessage().contains("gave up after 4 restarts"));
+
+    assertEquals(5, launches.size());
+    long[] expected = {
+        100, 200, 400, 400};
+    for (int i = 0; i < expected.length; i++) {
+      long backoff = launches.get(i + 1) - launches.get(i);
+      assertTrue("restart " + (i + 1) + " after " + backoff + " ms", backoff >= expected[i]);
+      // capped, not doubled again
+      assertTrue("restart " + (i + 1) + " after " + backoff + " ms", backoff < expected[i] * 2);
+    }
+  }
+
+  @Test
+  public void reportsRunningOnlyOnceTheProbePasses() throws Exception {
+    final FakeProcess process = new FakeProcess();
+    FakeProbe readiness = new FakeProbe();
+    ProcessSupervisor supervisor = new ProcessSupervisor(driver, task, launcherOf(process),
+        readiness, null, createConfig(100, 400, 4));
+
+    supervisor.start();
+    Thread.sleep(200);
+    verify(driver, never()).sendStatusUpdate(any(Protos.TaskStatus.class));
+
+    readiness.passing.set(true);
+    ArgumentCaptor<Protos.TaskStatus> status = ArgumentCaptor.forClass(Protos.TaskStatus.class);
+    verify(driver, timeout(2000)).sendStatusUpdate(status.capture());
+    assertEquals(Protos.TaskState.TASK_RUNNING, status.getValue().getState());
+
+    supervisor.stop();
+    assertTrue(process.isDestroyed());
+  }
+
+  @Test
+  public void destroysAProcessStartedWhileBeingStopped() throws Exception {
+    final FakeProcess process = new FakeProcess();
+    final CountDownLatch launching = new CountDownLatch(1);
+    final CountDownLatch launched = new CountDownLatch(1);
+    ProcessSupervisor supervisor = new ProcessSupervisor(driver, task,
+        new ProcessSupervisor.Launcher() {
+          @Override
+          public Process launch() throws IOException {
+            launching.countDown();
+            // like a slow fork, not cut short by the interrupt
+            while (true) {
+              try {
+                launched.await();
+                return process;
+              } catch (InterruptedException e) {
+                // keep waiting
+              }
+            }
+          }
+        }, null, null, createConfig(100, 400, 4));
+
+    supervisor.start();
+    assertTrue(launching.await(2, TimeUnit.SECONDS));
+    supervisor.stop();
+    launched.countDown();
+
+    assertTrue(process.awaitExit(2000));
+    assertTrue(process.isDestroyed());
+    Thread.sleep(200);
+    verify(driver, never()).sendStatusUpdate(any(Protos.TaskStatus.class));
+  }
+
+  static HBaseFrameworkConfig createConfig(int backoffMillis, int maxBackoffMillis,
+      int maxRestarts) {
+    Configuration conf = new Configuration();
+    conf.setInt("mesos.hbase.executor.restart.backoff.ms", backoffMillis);
+    conf.setInt("mesos.hbase.executor.restart.backoff.max.ms", maxBackoffMillis);
+    conf.setInt("mesos.hbase.executor.max.restarts", maxRestarts);
+    conf.setInt("mesos.hbase.executor.readiness.probe.ms", 10);
+    return new HBaseFrameworkConfig(conf);
+  }
+
+  static Protos.TaskInfo createTaskInfo() {
+    return Protos.TaskInfo.newBuilder()
+        .setName("slavenode")
+        .setTaskId(Protos.TaskID.newBuilder().setValue("task.slavenode.slavenode.0"))
+        .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave"))
+        .setData(ByteString.copyFromUtf8("bin/hbase-mesos-slavenode"))
+        .build();
+  }
+
+  static ProcessSupervisor.Launcher launcherOf(final Process process) {
+    return new ProcessSupervisor.Launcher() {
+      @Override
+      public Process launch() {
+        return process;
+      }
+    };
+  }
+
+  /**
+   * Passes once told to.
+   */
+  static class FakeProbe extends HttpProbe {
+    final AtomicBoolean passing = new AtomicBoolean();
+
+    FakeProbe() {
+      super(url());
+    }
+
+    @Override
+    boolean probe() {
+      return passing.get();
+    }
+
+    private static URL url() {
+      try {
+        return new URL("http://localhost:1/jmx");
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
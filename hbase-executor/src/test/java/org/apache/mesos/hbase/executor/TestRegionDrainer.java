@@ -0,0 +1,83 @@
+package org.apache.mesos.hbase.executor;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mesos.ExecutorDriver;
+import org.apache.mesos.Protos;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.mesos.hbase.executor.TestProcessSupervisor.createTaskInfo;
+import static org.apache.mesos.hbase.executor.TestProcessSupervisor.launcherOf;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class TestRegionDrainer {
+
+  private final ExecutorDriver driver = mock(ExecutorDriver.class);
+  private final Task task = new Task(createTaskInfo());
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private final Runnable stop = new Runnable() {
+    @Override
+    public void run() {
+      stopped.countDown();
+    }
+  };
+
+  @Test
+  public void destroysTheMoverWhenItTimesOut() throws Exception {
+    FakeProcess mover = new FakeProcess();
+    long start = System.currentTimeMillis();
+
+    createDrainer(launcherOf(mover), 1).start();
+
+    assertTrue(stopped.await(5, TimeUnit.SECONDS));
+    assertTrue(System.currentTimeMillis() - start >= 1000);
+    assertTrue(mover.isDestroyed());
+  }
+
+  @Test
+  public void stopsTheRegionServerWhenTheMoverFails() throws Exception {
+    FakeProcess mover = FakeProcess.exited(1);
+
+    createDrainer(launcherOf(mover), 60).start();
+
+    assertTrue(stopped.await(5, TimeUnit.SECONDS));
+    assertFalse(mover.isDestroyed());
+    verify(driver).sendStatusUpdate(argThat(new ArgumentMatcher<Protos.TaskStatus>() {
+      @Override
+      public boolean matches(Object status) {
+        return ((Protos.TaskStatus) status).getState() == Protos.TaskState.TASK_RUNNING;
+      }
+    }));
+  }
+
+  @Test
+  public void stopsTheRegionServerWhenTheMoverCannotBeStarted() throws Exception {
+    createDrainer(new ProcessSupervisor.Launcher() {
+      @Override
+      public Process launch() throws IOException {
+        throw new IOException("No such file");
+      }
+    }, 60).start();
+
+    assertTrue(stopped.await(5, TimeUnit.SECONDS));
+  }
+
+  private RegionDrainer createDrainer(ProcessSupervisor.Launcher mover, int timeoutSeconds)
+      throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt("mesos.hbase.executor.drain.timeout.seconds", timeoutSeconds);
+    // nothing serves the region count, no progress is reported
+    return new RegionDrainer(driver, task, mover, new URL("http://localhost:1/jmx"), stop,
+        new HBaseFrameworkConfig(conf));
+  }
+}
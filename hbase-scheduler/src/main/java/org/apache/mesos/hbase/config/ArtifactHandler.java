@@ -0,0 +1,170 @@
+package org.apache.mesos.hbase.config;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves the executor tarball to the Mesos fetchers. Every response is written straight from the
+ * memory mapped file, so the content is neither read nor copied onto the heap per request.
+ * Responses carry a strong ETag made of the content hash and support If-None-Match and single byte
+ * ranges, so an interrupted download can resume.
+ *
+ * At most a configured number of downloads run at once, the others get a 503 with a Retry-After
+ * right away instead of parking a server thread until a slot frees up.
+ */
+class ArtifactHandler extends AbstractHandler {
+
+  private static final int RETRY_AFTER_SECONDS = 5;
+
+  private final Log log = LogFactory.getLog(ArtifactHandler.class);
+
+  private final ExecutorArtifact artifact;
+  private final Semaphore downloads;
+
+  ArtifactHandler(ExecutorArtifact artifact, int maxConcurrentDownloads) {
+    this.artifact = artifact;
+    this.downloads = new Semaphore(maxConcurrentDownloads);
+  }
+
+  @Override
+  public void handle(String target, Request baseRequest, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    // served as /<file> and, addressed by content, as /<checksum>/<file>
+    String path = target.startsWith("/") ? target.substring(1) : target;
+    String checksum = null;
+    int slash = path.indexOf('/');
+    if (slash >= 0) {
+      checksum = path.substring(0, slash);
+      path = path.substring(slash + 1);
+    }
+    if (!path.equals(artifact.getFilename())) {
+      return;
+    }
+    String method = request.getMethod();
+    if (!HttpMethod.GET.is(method) && !HttpMethod.HEAD.is(method)) {
+      return;
+    }
+    ExecutorArtifact.Mapping mapping = artifact.map();
+    if (mapping == null) {
+      // leave it to the resource handler to answer
+      return;
+    }
+    baseRequest.setHandled(true);
+    if (checksum != null && !checksum.equals(mapping.getChecksum())) {
+      response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    response.setHeader(HttpHeader.ETAG.asString(), mapping.getEtag());
+    response.setHeader(HttpHeader.ACCEPT_RANGES.asString(), "bytes");
+    response.setDateHeader(HttpHeader.LAST_MODIFIED.asString(), mapping.getLastModified());
+    if (ConfigVersion.matches(request.getHeader(HttpHeader.IF_NONE_MATCH.asString()),
+        mapping.getEtag())) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    long start = 0;
+    long end = mapping.getLength() - 1;
+    String range = request.getHeader(HttpHeader.RANGE.asString());
+    if (range != null && ifRangeMatches(request, mapping)) {
+      long[] bounds = parseRange(range, mapping.getLength());
+      if (bounds == null) {
+        response.setHeader(HttpHeader.CONTENT_RANGE.asString(), "bytes */" + mapping.getLength());
+        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      if (bounds.length == 2) {
+        start = bounds[0];
+        end = bounds[1];
+        response.setHeader(HttpHeader.CONTENT_RANGE.asString(),
+            String.format("bytes %d-%d/%d", start, end, mapping.getLength()));
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      }
+    }
+
+    response.setContentType("application/octet-stream");
+    response.setHeader(HttpHeader.CONTENT_LENGTH.asString(), String.valueOf(end - start + 1));
+    if (HttpMethod.HEAD.is(method)) {
+      return;
+    }
+
+    if (!downloads.tryAcquire()) {
+      response.reset();
+      response.setHeader(HttpHeader.RETRY_AFTER.asString(), String.valueOf(RETRY_AFTER_SECONDS));
+      response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      log.warn("Too many concurrent downloads of " + artifact.getFilename() + ", rejected one");
+      return;
+    }
+    try {
+      ByteBuffer body = mapping.getContent();
+      body.position((int) start);
+      body.limit((int) end + 1);
+      ((HttpOutput) response.getOutputStream()).sendContent(body);
+    } finally {
+      downloads.release();
+    }
+  }
+
+  /**
+   * A range is only honoured if the client's copy, named by If-Range, is still the current one.
+   */
+  private boolean ifRangeMatches(HttpServletRequest request, ExecutorArtifact.Mapping mapping) {
+    String ifRange = request.getHeader(HttpHeader.IF_RANGE.asString());
+    return ifRange == null || ifRange.trim().equals(mapping.getEtag());
+  }
+
+  /**
+   * Parses a single byte range ("a-b", "a-" or "-n"). Requests for several ranges are answered
+   * with the whole file.
+   *
+   * @return the first and last byte, an empty array for the whole file or null if the range cannot
+   * be satisfied
+   */
+  private static long[] parseRange(String range, long length) {
+    String value = range.trim();
+    if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+      return new long[0];
+    }
+    value = value.substring("bytes=".length()).trim();
+    int dash = value.indexOf('-');
+    if (dash < 0) {
+      return new long[0];
+    }
+    try {
+      String first = value.substring(0, dash).trim();
+      String last = value.substring(dash + 1).trim();
+      long start;
+      long end;
+      if (first.isEmpty()) {
+        long suffix = Long.parseLong(last);
+        if (suffix <= 0) {
+          return null;
+        }
+        start = Math.max(0, length - suffix);
+        end = length - 1;
+      } else {
+        start = Long.parseLong(first);
+        end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+      }
+      if (start >= length || start > end) {
+        return null;
+      }
+      return new long[]{
+          start, end};
+    } catch (NumberFormatException e) {
+      return new long[0];
+    }
+  }
+}
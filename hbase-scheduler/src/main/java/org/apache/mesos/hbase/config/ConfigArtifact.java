@@ -0,0 +1,46 @@
+package org.apache.mesos.hbase.config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A rendered config file together with its version and the inputs it was rendered from, e.g. the
+ * template's timestamp and the node sets. Never changes once built, so it can be served by any
+ * number of requests without locking until the inputs change and it is replaced.
+ */
+public final class ConfigArtifact {
+
+  private final Object inputs;
+  private final byte[] content;
+  private final String etag;
+
+  ConfigArtifact(Object inputs, byte[] content) {
+    this.inputs = inputs;
+    this.content = content;
+    this.etag = ConfigVersion.of(content);
+  }
+
+  boolean renderedFrom(Object currentInputs) {
+    return inputs.equals(currentInputs);
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  public int getLength() {
+    return content.length;
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(content);
+  }
+
+  /**
+   * Copy of the content, the artifact itself stays unchanged.
+   */
+  public byte[] getContent() {
+    return Arrays.copyOf(content, content.length);
+  }
+}
@@ -0,0 +1,146 @@
+package org.apache.mesos.hbase.config;
+
+import com.floreysoft.jmte.Engine;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.hbase.state.IPersistentStateStore;
+import org.apache.mesos.hbase.util.HBaseConstants;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Renders the config files the scheduler hands out to the executors, hbase-site.xml from its
+ * template and regionservers from the node sets. Rendered files are kept until the template or the
+ * nodes change, so both the config server and the config pushed with framework messages are
+ * served from the same cache.
+ */
+@Singleton
+public class ConfigRenderer {
+
+  private final Log log = LogFactory.getLog(ConfigRenderer.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final HBaseFrameworkConfig hbaseFrameworkConfig;
+  private final IPersistentStateStore persistenceStore;
+  private final Engine engine = new Engine();
+
+  // rendered files, replaced whenever the inputs they were rendered from change
+  private volatile ConfigArtifact hbaseSite;
+  private volatile ConfigArtifact regionServers;
+  private final Object renderLock = new Object();
+
+  @Inject
+  public ConfigRenderer(HBaseFrameworkConfig hbaseFrameworkConfig,
+      IPersistentStateStore persistenceStore) {
+    this.hbaseFrameworkConfig = hbaseFrameworkConfig;
+    this.persistenceStore = persistenceStore;
+  }
+
+  /**
+   * All rendered config files by file name.
+   */
+  public Map<String, ConfigArtifact> getConfigFiles() throws IOException {
+    Map<String, ConfigArtifact> files = new LinkedHashMap<>();
+    files.put(HBaseConstants.HBASE_CONFIG_FILE_NAME, getHbaseSite());
+    files.put(HBaseConstants.REGION_SERVERS_FILENAME, getRegionServers());
+    return files;
+  }
+
+  public ConfigArtifact getHbaseSite() throws IOException {
+    File confFile = new File(hbaseFrameworkConfig.getConfigPath());
+
+    if (!confFile.exists()) {
+      throw new FileNotFoundException("Couldn't file config file: " + confFile.getPath()
+          + ". Please make sure it exists.");
+    }
+
+    Set<String> primaryNodes = new TreeSet<>();
+    primaryNodes.addAll(persistenceStore.getPrimaryNodes().keySet());
+    List<Object> inputs = Arrays.<Object>asList(confFile.lastModified(), confFile.length(),
+        primaryNodes);
+
+    ConfigArtifact artifact = hbaseSite;
+    if (artifact == null || !artifact.renderedFrom(inputs)) {
+      synchronized (renderLock) {
+        artifact = hbaseSite;
+        if (artifact == null || !artifact.renderedFrom(inputs)) {
+          artifact = new ConfigArtifact(inputs, renderHbaseSite(confFile, primaryNodes));
+          hbaseSite = artifact;
+        }
+      }
+    }
+    return artifact;
+  }
+
+  public ConfigArtifact getRegionServers() {
+    Set<String> primaryNodes = new TreeSet<>();
+    primaryNodes.addAll(persistenceStore.getPrimaryNodes().keySet());
+
+    Set<String> regionNodes = new TreeSet<>();
+    regionNodes.addAll(persistenceStore.getRegionNodes().keySet());
+
+    List<Object> inputs = Arrays.<Object>asList(primaryNodes, regionNodes);
+    ConfigArtifact artifact = regionServers;
+    if (artifact == null || !artifact.renderedFrom(inputs)) {
+      StringBuilder content = new StringBuilder();
+      for (String primaryNode : primaryNodes) {
+        content.append(primaryNode).append('\n');
+      }
+      for (String regionNode : regionNodes) {
+        content.append(regionNode).append('\n');
+      }
+      artifact = new ConfigArtifact(inputs, content.toString().getBytes(UTF_8));
+      regionServers = artifact;
+    }
+    return artifact;
+  }
+
+  private byte[] renderHbaseSite(File confFile, Set<String> primaryNodes) throws IOException {
+    log.info("Rendering " + HBaseConstants.HBASE_CONFIG_FILE_NAME);
+    String view = new String(Files.readAllBytes(Paths.get(confFile.getPath())),
+        Charset.defaultCharset());
+
+    Map<String, Object> model = new HashMap<>();
+    Iterator<String> iter = primaryNodes.iterator();
+
+    if (iter.hasNext()) {
+      model.put("primary1Hostname", iter.next());
+    }
+
+    if (iter.hasNext()) {
+      model.put("primary2Hostname", iter.next());
+    }
+
+    model.put("hbaseRootDir", getHbaseRootDir());
+
+    model.put("frameworkName", hbaseFrameworkConfig.getFrameworkName());
+    model.put("dataDir", hbaseFrameworkConfig.getDataDir());
+    model.put("haZookeeperQuorum", hbaseFrameworkConfig.getHaZookeeperQuorum());
+
+    return engine.transform(view, model).getBytes(UTF_8);
+  }
+
+  private String getHbaseRootDir() {
+    if (hbaseFrameworkConfig.usingMesosHdfs()) {
+      return "hdfs://" + hbaseFrameworkConfig.getDfsNameServices() + "/hbase";
+    } else {
+      return hbaseFrameworkConfig.getHbaseRootDir();
+    }
+  }
+}
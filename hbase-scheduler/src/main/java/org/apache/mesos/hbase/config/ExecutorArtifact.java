@@ -0,0 +1,121 @@
+package org.apache.mesos.hbase.config;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.hbase.util.HBaseConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The executor tarball served by the config server. The file is memory mapped once and identified
+ * by the SHA-1 of its content, both are kept until the file's size or mtime changes.
+ */
+@Singleton
+public class ExecutorArtifact {
+
+  private final Log log = LogFactory.getLog(ExecutorArtifact.class);
+
+  private final File file;
+  private volatile Mapping mapping;
+
+  /**
+   * The mapped content and its version.
+   */
+  static final class Mapping {
+    private final long length;
+    private final long lastModified;
+    private final ByteBuffer content;
+    private final String etag;
+
+    Mapping(long length, long lastModified, ByteBuffer content) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.content = content;
+      this.etag = ConfigVersion.of(content);
+    }
+
+    long getLength() {
+      return length;
+    }
+
+    long getLastModified() {
+      return lastModified;
+    }
+
+    /**
+     * @return a view of the content, to be positioned by the caller
+     */
+    ByteBuffer getContent() {
+      return content.duplicate();
+    }
+
+    String getEtag() {
+      return etag;
+    }
+
+    String getChecksum() {
+      return etag.substring(1, etag.length() - 1);
+    }
+  }
+
+  @Inject
+  public ExecutorArtifact(HBaseFrameworkConfig hbaseFrameworkConfig) {
+    this.file = new File(hbaseFrameworkConfig.getExecutorPath(),
+        HBaseConstants.HBASE_BINARY_FILE_NAME);
+  }
+
+  String getFilename() {
+    return file.getName();
+  }
+
+  /**
+   * @return the hex SHA-1 of the tarball or null if there is none
+   */
+  public String getChecksum() {
+    try {
+      Mapping current = map();
+      return current == null ? null : current.getChecksum();
+    } catch (IOException e) {
+      log.warn("Unable to read " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * @return the current mapping, mapping the file again if it changed, or null if there is no file
+   */
+  Mapping map() throws IOException {
+    long length = file.length();
+    long lastModified = file.lastModified();
+    Mapping current = mapping;
+    if (current != null && current.length == length && current.lastModified == lastModified) {
+      return current;
+    }
+    synchronized (this) {
+      current = mapping;
+      if (current != null && current.length == length && current.lastModified == lastModified) {
+        return current;
+      }
+      if (!file.isFile() || length > Integer.MAX_VALUE) {
+        return null;
+      }
+      try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+        MappedByteBuffer content = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+            in.length());
+        // the mapping stays valid after the channel is closed
+        current = new Mapping(content.capacity(), lastModified, content);
+      }
+      mapping = current;
+      log.info(String.format("Serving %s (%d bytes) version %s", file, current.length,
+          current.etag));
+      return current;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package org.apache.mesos.hbase.config;
+
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves the scheduler's metrics as JSON at /metrics and its recent placement decisions at
+ * /decisions, the latter limited to the last n decisions with ?limit=n.
+ */
+class MetricsHandler extends AbstractHandler {
+
+  private static final int DEFAULT_DECISION_LIMIT = 100;
+
+  private final SchedulerMetrics metrics;
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  MetricsHandler(SchedulerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void handle(String target, Request baseRequest, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    Object body;
+    if ("/metrics".equals(target)) {
+      Map<String, Object> values = new LinkedHashMap<>();
+      values.put("counters", metrics.getCounters());
+      values.put("histograms", metrics.getHistograms());
+      values.put("gauges", metrics.getGauges());
+      body = values;
+    } else if ("/decisions".equals(target)) {
+      body = metrics.getDecisions(getLimit(request));
+    } else {
+      return;
+    }
+    baseRequest.setHandled(true);
+    response.setContentType("application/json;charset=utf-8");
+    response.setStatus(HttpServletResponse.SC_OK);
+    mapper.writeValue(response.getOutputStream(), body);
+  }
+
+  private int getLimit(HttpServletRequest request) {
+    String limit = request.getParameter("limit");
+    if (limit == null) {
+      return DEFAULT_DECISION_LIMIT;
+    }
+    try {
+      return Math.max(0, Integer.parseInt(limit));
+    } catch (NumberFormatException e) {
+      return DEFAULT_DECISION_LIMIT;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package org.apache.mesos.hbase.config;
+
+import org.apache.mesos.hbase.scheduler.RollingRestart;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Controls rolling restarts of the region servers at /rolling-restart: POST starts one, DELETE
+ * cancels the running one and GET shows its progress as JSON. A POST while one is running, or
+ * before the scheduler registered, is answered with 409.
+ */
+class RollingRestartHandler extends AbstractHandler {
+
+  private final RollingRestart rollingRestart;
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  RollingRestartHandler(RollingRestart rollingRestart) {
+    this.rollingRestart = rollingRestart;
+  }
+
+  @Override
+  public void handle(String target, Request baseRequest, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    if (!"/rolling-restart".equals(target)) {
+      return;
+    }
+    baseRequest.setHandled(true);
+    int status;
+    switch (request.getMethod()) {
+      case "GET":
+        status = HttpServletResponse.SC_OK;
+        break;
+      case "POST":
+        status = rollingRestart.start() ? HttpServletResponse.SC_ACCEPTED
+            : HttpServletResponse.SC_CONFLICT;
+        break;
+      case "DELETE":
+        status = rollingRestart.cancel() ? HttpServletResponse.SC_OK
+            : HttpServletResponse.SC_CONFLICT;
+        break;
+      default:
+        response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+        return;
+    }
+    response.setContentType("application/json;charset=utf-8");
+    response.setStatus(status);
+    mapper.writeValue(response.getOutputStream(), rollingRestart.getStatus());
+  }
+}
@@ -0,0 +1,8 @@
+package org.apache.mesos.hbase.metrics;
+
+/**
+ * A value read when the metrics are served, such as the size of a queue.
+ */
+public interface Gauge {
+  long getValue();
+}
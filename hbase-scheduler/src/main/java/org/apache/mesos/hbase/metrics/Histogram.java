@@ -0,0 +1,70 @@
+package org.apache.mesos.hbase.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Distribution of durations in milliseconds, counted in fixed buckets so it takes the same memory
+ * no matter how many values are recorded. Percentiles are reported as the upper bound of the
+ * bucket they fall in.
+ */
+public class Histogram {
+
+  private static final long[] BOUNDS = {
+      1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000,
+      500000, 1000000, Long.MAX_VALUE};
+
+  private final long[] counts = new long[BOUNDS.length];
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  public synchronized void record(long millis) {
+    long value = Math.max(0, millis);
+    int bucket = 0;
+    while (value > BOUNDS[bucket]) {
+      bucket++;
+    }
+    counts[bucket]++;
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded
+   */
+  public synchronized long getPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(count * percentile / 100);
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      seen += counts[bucket];
+      if (seen >= Math.max(rank, 1)) {
+        return Math.min(BOUNDS[bucket], max);
+      }
+    }
+    return max;
+  }
+
+  public synchronized Map<String, Long> snapshot() {
+    Map<String, Long> snapshot = new LinkedHashMap<>();
+    snapshot.put("count", count);
+    snapshot.put("min", count == 0 ? 0 : min);
+    snapshot.put("max", max);
+    snapshot.put("mean", count == 0 ? 0 : sum / count);
+    snapshot.put("p50", getPercentile(50));
+    snapshot.put("p90", getPercentile(90));
+    snapshot.put("p99", getPercentile(99));
+    return snapshot;
+  }
+}
@@ -0,0 +1,63 @@
+package org.apache.mesos.hbase.metrics;
+
+/**
+ * What the scheduler decided for one node type on one offer.
+ */
+public final class PlacementDecision {
+
+  private final long time;
+  private final String offerId;
+  private final String hostname;
+  private final String nodeType;
+  private final boolean launched;
+  private final String reason;
+  private final String detail;
+
+  PlacementDecision(long time, String offerId, String hostname, String nodeType, boolean launched,
+      String reason, String detail) {
+    this.time = time;
+    this.offerId = offerId;
+    this.hostname = hostname;
+    this.nodeType = nodeType;
+    this.launched = launched;
+    this.reason = reason;
+    this.detail = detail;
+  }
+
+  /**
+   * @return milliseconds since the epoch
+   */
+  public long getTime() {
+    return time;
+  }
+
+  public String getOfferId() {
+    return offerId;
+  }
+
+  public String getHostname() {
+    return hostname;
+  }
+
+  public String getNodeType() {
+    return nodeType;
+  }
+
+  public boolean isLaunched() {
+    return launched;
+  }
+
+  /**
+   * @return why the node was not launched, null if it was
+   */
+  public String getReason() {
+    return reason;
+  }
+
+  /**
+   * @return the launched task id or what was missing
+   */
+  public String getDetail() {
+    return detail;
+  }
+}
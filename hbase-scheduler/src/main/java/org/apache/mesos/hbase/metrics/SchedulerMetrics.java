@@ -0,0 +1,220 @@
+package org.apache.mesos.hbase.metrics;
+
+import com.google.inject.Singleton;
+import org.apache.mesos.Protos.TaskState;
+import org.apache.mesos.hbase.state.TaskLifecycle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms of the scheduler's offer handling, plus the most recent placement
+ * decisions, served by the config server. Safe to update from the driver's callback thread while
+ * being read by the config server.
+ */
+@Singleton
+public class SchedulerMetrics {
+
+  public static final String RESOURCE_OFFERS_MILLIS = "resource.offers.ms";
+  public static final String LAUNCH_TO_RUNNING_MILLIS = "task.launch.to.running.ms";
+  public static final String TIMER_LATE_MILLIS = "timer.late.ms";
+
+  private static final int MAX_DECISIONS = 500;
+
+  private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+  private final Deque<PlacementDecision> decisions = new ArrayDeque<>(MAX_DECISIONS);
+
+  public SchedulerMetrics() {
+    histograms.put(RESOURCE_OFFERS_MILLIS, new Histogram());
+    histograms.put(LAUNCH_TO_RUNNING_MILLIS, new Histogram());
+    histograms.put(TIMER_LATE_MILLIS, new Histogram());
+  }
+
+  /**
+   * Registers a gauge, replacing the one registered under the same name before.
+   */
+  public void gauge(String name, Gauge gauge) {
+    gauges.put(name, gauge);
+  }
+
+  public void offersReceived(int count) {
+    increment("offers.received", count);
+  }
+
+  public void offerAccepted() {
+    increment("offers.accepted", 1);
+  }
+
+  public void offerDeclined(String reason) {
+    increment("offers.declined." + name(reason), 1);
+  }
+
+  public void resourceOffersHandled(long nanos) {
+    histograms.get(RESOURCE_OFFERS_MILLIS).record(TimeUnit.NANOSECONDS.toMillis(nanos));
+  }
+
+  public void nodeRejected(String offerId, String hostname, String nodeType, String reason,
+      String detail) {
+    increment("rejections." + name(nodeType) + "." + name(reason), 1);
+    addDecision(new PlacementDecision(System.currentTimeMillis(), offerId, hostname, nodeType,
+        false, reason, detail));
+  }
+
+  public void nodeLaunched(String offerId, String hostname, String nodeType, String taskId) {
+    increment("launches." + name(nodeType), 1);
+    addDecision(new PlacementDecision(System.currentTimeMillis(), offerId, hostname, nodeType,
+        true, null, taskId));
+  }
+
+  /**
+   * Records the time a task took to reach a state, overall and per node type, when the task
+   * reached the state for the first time.
+   */
+  public void taskReached(TaskLifecycle lifecycle, TaskState state) {
+    String prefix = "task." + name(lifecycle.getNodeType()) + ".";
+    switch (state) {
+      case TASK_STARTING:
+        record(prefix + "launch.to.starting.ms",
+            lifecycle.getStarting() - lifecycle.getLaunched());
+        break;
+      case TASK_RUNNING:
+        long launchToRunning = lifecycle.getRunning() - lifecycle.getLaunched();
+        histograms.get(LAUNCH_TO_RUNNING_MILLIS).record(launchToRunning);
+        record(prefix + "launch.to.running.ms", launchToRunning);
+        if (lifecycle.getStarting() != 0) {
+          record(prefix + "starting.to.running.ms",
+              lifecycle.getRunning() - lifecycle.getStarting());
+        }
+        break;
+      case TASK_STAGING:
+        break;
+      default:
+        increment(prefix + name(state.name()), 1);
+        if (lifecycle.getRunning() == 0) {
+          increment(prefix + "ended.before.running", 1);
+        }
+        break;
+    }
+  }
+
+  public void stuckTaskKilled(String nodeType) {
+    increment("task." + name(nodeType) + ".stuck.killed", 1);
+  }
+
+  public void unhealthyTaskKilled(String nodeType) {
+    increment("task." + name(nodeType) + ".unhealthy.killed", 1);
+  }
+
+  public void rollingRestartBatchDone(int regionServers) {
+    increment("rolling.restart.batches", 1);
+    increment("rolling.restart.regionservers", regionServers);
+  }
+
+  public void rollingRestartAborted() {
+    increment("rolling.restart.aborted", 1);
+  }
+
+  /**
+   * Records a run of a scheduled task and how long after its due time it started.
+   */
+  public void timerTaskRan(String name, long lateMillis) {
+    increment("timer." + name(name) + ".runs", 1);
+    histograms.get(TIMER_LATE_MILLIS).record(lateMillis);
+  }
+
+  public void timerTaskFailed(String name) {
+    increment("timer." + name(name) + ".failures", 1);
+  }
+
+  public long getCounter(String name) {
+    AtomicLong counter = counters.get(name);
+    return counter == null ? 0 : counter.get();
+  }
+
+  public SortedMap<String, Long> getCounters() {
+    SortedMap<String, Long> values = new TreeMap<>();
+    for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+      values.put(counter.getKey(), counter.getValue().get());
+    }
+    return values;
+  }
+
+  public Histogram getHistogram(String name) {
+    return histograms.get(name);
+  }
+
+  public SortedMap<String, Map<String, Long>> getHistograms() {
+    SortedMap<String, Map<String, Long>> values = new TreeMap<>();
+    for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+      values.put(histogram.getKey(), histogram.getValue().snapshot());
+    }
+    return values;
+  }
+
+  public SortedMap<String, Long> getGauges() {
+    SortedMap<String, Long> values = new TreeMap<>();
+    for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+      values.put(gauge.getKey(), gauge.getValue().getValue());
+    }
+    return values;
+  }
+
+  /**
+   * @return up to the given number of the most recent decisions, oldest first
+   */
+  public List<PlacementDecision> getDecisions(int limit) {
+    synchronized (decisions) {
+      List<PlacementDecision> recent = new ArrayList<>(decisions);
+      return recent.subList(Math.max(0, recent.size() - limit), recent.size());
+    }
+  }
+
+  private void addDecision(PlacementDecision decision) {
+    synchronized (decisions) {
+      if (decisions.size() == MAX_DECISIONS) {
+        decisions.removeFirst();
+      }
+      decisions.addLast(decision);
+    }
+  }
+
+  private void record(String name, long millis) {
+    Histogram histogram = histograms.get(name);
+    if (histogram == null) {
+      Histogram created = new Histogram();
+      histogram = histograms.putIfAbsent(name, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    histogram.record(millis);
+  }
+
+  private void increment(String name, long delta) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = counters.putIfAbsent(name, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    counter.addAndGet(delta);
+  }
+
+  private static String name(String part) {
+    return part == null ? "none" : part.toLowerCase(Locale.ENGLISH);
+  }
+}
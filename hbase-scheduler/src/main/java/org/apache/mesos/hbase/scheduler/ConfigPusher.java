@@ -0,0 +1,50 @@
+package org.apache.mesos.hbase.scheduler;
+
+import org.apache.mesos.hbase.config.ConfigArtifact;
+import org.apache.mesos.hbase.config.ConfigMessage;
+import org.apache.mesos.hbase.config.ConfigRenderer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the config messages sent to the executors. Remembers which version of every file each
+ * task was sent, so a message only carries the content of the files that changed since; the
+ * others are listed with their version only.
+ */
+class ConfigPusher {
+
+  private final ConfigRenderer configRenderer;
+  // task id to file name to the version last sent to it
+  private final Map<String, Map<String, String>> sentVersions = new ConcurrentHashMap<>();
+
+  ConfigPusher(ConfigRenderer configRenderer) {
+    this.configRenderer = configRenderer;
+  }
+
+  byte[] messageFor(String taskId) throws IOException {
+    Map<String, String> sent = sentVersions.get(taskId);
+    if (sent == null) {
+      sent = new HashMap<>();
+      sentVersions.put(taskId, sent);
+    }
+
+    ConfigMessage message = new ConfigMessage();
+    for (Map.Entry<String, ConfigArtifact> file : configRenderer.getConfigFiles().entrySet()) {
+      String version = file.getValue().getEtag();
+      if (version.equals(sent.get(file.getKey()))) {
+        message.add(file.getKey(), version, null);
+      } else {
+        message.add(file.getKey(), version, file.getValue().getContent());
+        sent.put(file.getKey(), version);
+      }
+    }
+    return message.encode();
+  }
+
+  void forget(String taskId) {
+    sentVersions.remove(taskId);
+  }
+}
@@ -0,0 +1,74 @@
+package org.apache.mesos.hbase.scheduler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.SchedulerDriver;
+
+/**
+ * Coalesces config reload requests. The first request starts a window, every request made until
+ * the window ends is served by the single reload sent at its end. With a window of 0 every request
+ * reloads right away.
+ */
+class ConfigReloader {
+  private final Log log = LogFactory.getLog(ConfigReloader.class);
+
+  /**
+   * Sends the reload to the running tasks.
+   */
+  interface Reload {
+    void reload(SchedulerDriver driver);
+  }
+
+  private final int windowMillis;
+  private final Reload reload;
+  private final SchedulerTimer timer;
+
+  // guarded by this
+  private SchedulerDriver driver;
+  private boolean scheduled;
+  private int requests;
+
+  ConfigReloader(SchedulerTimer timer, int windowMillis, Reload reload) {
+    this.timer = timer;
+    this.windowMillis = windowMillis;
+    this.reload = reload;
+  }
+
+  void requestReload(SchedulerDriver driver) {
+    if (windowMillis <= 0) {
+      reload.reload(driver);
+      return;
+    }
+    synchronized (this) {
+      this.driver = driver;
+      requests++;
+      if (scheduled) {
+        return;
+      }
+      scheduled = true;
+    }
+    timer.schedule("config-reload", new Runnable() {
+      @Override
+      public void run() {
+        reloadNow();
+      }
+    }, windowMillis);
+  }
+
+  private void reloadNow() {
+    SchedulerDriver reloadDriver;
+    int coalesced;
+    synchronized (this) {
+      reloadDriver = driver;
+      coalesced = requests;
+      scheduled = false;
+      requests = 0;
+    }
+    log.info(String.format("Reloading configs on running tasks for %d requests", coalesced));
+    try {
+      reload.reload(reloadDriver);
+    } catch (RuntimeException e) {
+      log.error("Failed to reload configs on running tasks", e);
+    }
+  }
+}
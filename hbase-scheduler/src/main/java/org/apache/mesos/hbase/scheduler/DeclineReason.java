@@ -0,0 +1,20 @@
+package org.apache.mesos.hbase.scheduler;
+
+/**
+ * Why an offer was declined. Each reason is declined with its own refuse filter, so Mesos holds
+ * back offers that are of no use for a while instead of sending them again every second.
+ */
+enum DeclineReason {
+  /** The offer is too small for the node. */
+  INSUFFICIENT_RESOURCES,
+  /** The host already runs the node or a node it cannot share the host with. */
+  COLOCATION,
+  /** Offers are not used until the tasks are reconciled. */
+  RECONCILING,
+  /** All nodes of the kind are running. */
+  ALL_RUNNING,
+  /** Nodes are relaunched on the hosts they died on until the dead node timeout is over. */
+  AWAITING_DEAD_NODE,
+  /** The nodes placed on the offers could not be stored. */
+  STATE_UNAVAILABLE
+}
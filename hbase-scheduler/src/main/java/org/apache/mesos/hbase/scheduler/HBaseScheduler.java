@@ -12,8 +12,10 @@ import org.apache.mesos.Protos.Credential;
 import org.apache.mesos.Protos.Environment;
 import org.apache.mesos.Protos.ExecutorID;
 import org.apache.mesos.Protos.ExecutorInfo;
+import org.apache.mesos.Protos.Filters;
 import org.apache.mesos.Protos.FrameworkID;
 import org.apache.mesos.Protos.FrameworkInfo;
+import org.apache.mesos.Protos.HealthCheck;
 import org.apache.mesos.Protos.MasterInfo;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
@@ -28,6 +30,7 @@ import org.apache.mesos.SchedulerDriver;
 import org.apache.mesos.hbase.state.AcquisitionPhase;
 import org.apache.mesos.hbase.state.LiveState;
 import org.apache.mesos.hbase.state.PersistenceException;
+import org.apache.mesos.hbase.state.TaskLifecycle;
 import org.apache.mesos.hbase.state.IPersistentStateStore;
 import org.apache.mesos.hbase.util.DnsResolver;
 
@@ -36,13 +39,15 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.mesos.hbase.config.ConfigRenderer;
+import org.apache.mesos.hbase.config.ExecutorArtifact;
 import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
 import org.apache.mesos.hbase.util.HBaseConstants;
 import org.apache.mesos.hbase.util.HdfsConfFileUrlJsonFinder;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -56,23 +61,73 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
   private final Log log = LogFactory.getLog(HBaseScheduler.class);
 
   private static final int SECONDS_FROM_MILLIS = 1000;
+  // the filter Mesos applies to a declined offer by default
+  private static final int DEFAULT_REFUSE_SECONDS = 5;
+  private static final long STAGING_CHECK_PERIOD_MILLIS = 30000;
 
   private final HBaseFrameworkConfig hbaseFrameworkConfig;
   private final LiveState liveState;
   private final IPersistentStateStore persistenceStore;
   private final DnsResolver dnsResolver;
-
+  private final ConfigReloader configReloader;
+  private final ConfigPusher configPusher;
+  private final ExecutorArtifact executorArtifact;
+  private final SchedulerMetrics metrics;
+  private final SchedulerTimer timer;
+  private final Reconciler reconciler;
+  private final RollingRestart rollingRestart;
+
+  private final AtomicLong taskSequence = new AtomicLong();
   private MasterInfo masterInfo;
+  private ScheduledFuture<?> stagingCheck;
   private ObjectMapper mapper = new ObjectMapper();
 
-  @Inject
   public HBaseScheduler(HBaseFrameworkConfig hbaseFrameworkConfig,
       LiveState liveState, IPersistentStateStore persistenceStore) {
+    this(hbaseFrameworkConfig, liveState, persistenceStore,
+        new ConfigRenderer(hbaseFrameworkConfig, persistenceStore),
+        new ExecutorArtifact(hbaseFrameworkConfig), new SchedulerMetrics());
+  }
+
+  public HBaseScheduler(HBaseFrameworkConfig hbaseFrameworkConfig,
+      LiveState liveState, IPersistentStateStore persistenceStore,
+      ConfigRenderer configRenderer, ExecutorArtifact executorArtifact,
+      SchedulerMetrics metrics) {
+    this(hbaseFrameworkConfig, liveState, persistenceStore, configRenderer, executorArtifact,
+        metrics, new RollingRestart(hbaseFrameworkConfig, liveState, persistenceStore, metrics));
+  }
+
+  @Inject
+  public HBaseScheduler(HBaseFrameworkConfig hbaseFrameworkConfig,
+      LiveState liveState, IPersistentStateStore persistenceStore,
+      ConfigRenderer configRenderer, ExecutorArtifact executorArtifact,
+      SchedulerMetrics metrics, RollingRestart rollingRestart) {
 
     this.hbaseFrameworkConfig = hbaseFrameworkConfig;
     this.liveState = liveState;
     this.persistenceStore = persistenceStore;
-    this.dnsResolver = new DnsResolver(this, hbaseFrameworkConfig);
+    this.timer = new SchedulerTimer(metrics);
+    this.dnsResolver = new DnsResolver(this, hbaseFrameworkConfig, timer);
+    this.configPusher = new ConfigPusher(configRenderer);
+    this.executorArtifact = executorArtifact;
+    this.metrics = metrics;
+    this.rollingRestart = rollingRestart;
+    this.configReloader = new ConfigReloader(timer, hbaseFrameworkConfig.getConfigReloadWindow(),
+        new ConfigReloader.Reload() {
+          @Override
+          public void reload(SchedulerDriver driver) {
+            reloadConfigsOnAllRunningTasks(driver);
+          }
+        });
+    this.reconciler = new Reconciler(timer,
+        hbaseFrameworkConfig.getReconciliationBackoff(),
+        (long) hbaseFrameworkConfig.getReconciliationTimeout() * SECONDS_FROM_MILLIS,
+        new Reconciler.Listener() {
+          @Override
+          public void reconciled(SchedulerDriver driver) {
+            completeReconciliation(driver);
+          }
+        });
   }
 
   @Override
@@ -87,9 +142,18 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
     // Watch MESOS-2522 which will add a reason field for framework errors to help with this.
     // For now the frameworkId is removed for all messages.
     boolean removeFrameworkId = message.contains("re-register");
+    // the driver is aborted, nothing scheduled is of use anymore
+    shutdown();
     suicide(removeFrameworkId);
   }
 
+  /**
+   * Stops the scheduler's timer, dropping the staging check and every other scheduled task.
+   */
+  public void shutdown() {
+    timer.shutdown();
+  }
+
   /**
     * Exits the JVM process, optionally deleting Marathon's FrameworkID
     * from the backing persistence store.
@@ -143,6 +207,8 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
     log.info("Registered framework frameworkId=" + frameworkId.getValue());
     // reconcile tasks upon registration
     reconcileTasks(driver);
+    startStagingCheck(driver);
+    rollingRestart.attach(driver, timer);
   }
 
   @Override
@@ -151,6 +217,42 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
     log.info("Reregistered framework: starting task reconciliation");
     // reconcile tasks upon reregistration
     reconcileTasks(driver);
+    startStagingCheck(driver);
+    rollingRestart.attach(driver, timer);
+  }
+
+  /**
+   * Periodically kills tasks which did not get to run within the staging timeout, they are
+   * launched again like any other task that died.
+   */
+  private synchronized void startStagingCheck(final SchedulerDriver driver) {
+    int timeout = hbaseFrameworkConfig.getStagingTimeout();
+    if (stagingCheck != null || timeout <= 0) {
+      return;
+    }
+    final long timeoutMillis = (long) timeout * SECONDS_FROM_MILLIS;
+    long period = Math.min(timeoutMillis / 2, STAGING_CHECK_PERIOD_MILLIS);
+    stagingCheck = timer.scheduleAtFixedRate("staging-check", new Runnable() {
+      @Override
+      public void run() {
+        killStuckTasks(driver, System.currentTimeMillis() - timeoutMillis);
+      }
+    }, period, period);
+  }
+
+  private void killStuckTasks(SchedulerDriver driver, long launchedBefore) {
+    for (TaskLifecycle stuck : liveState.getTasksNotRunningSince(launchedBefore)) {
+      if (stuck.killSent(System.currentTimeMillis())) {
+        log.warn(String.format("Killing taskId=%s, launched at %tT and not running yet",
+            stuck.getTaskId(), stuck.getLaunched()));
+        metrics.stuckTaskKilled(stuck.getNodeType());
+      } else {
+        // the kill may have been lost, e.g. while the agent was disconnected
+        log.warn(String.format("Killing taskId=%s again, no terminal status since the last kill",
+            stuck.getTaskId()));
+      }
+      driver.killTask(TaskID.newBuilder().setValue(stuck.getTaskId()).build());
+    }
   }
 
   @Override
@@ -162,18 +264,36 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
         status.getMessage(),
         liveState.getStagingTasksSize()));
 
+    reconciler.statusReceived(status.getTaskId().getValue());
+    TaskLifecycle lifecycle = liveState.recordStatus(status);
+    if (lifecycle != null) {
+      metrics.taskReached(lifecycle, status.getState());
+    }
     if (!isStagingState(status)) {
       liveState.removeStagingTask(status.getTaskId());
     }
 
+    if (status.hasHealthy() && !status.getHealthy() && !isTerminalState(status)) {
+      // the node stopped serving, a replacement is launched once the task is killed
+      log.warn(String.format("Killing unhealthy taskId=%s: %s", status.getTaskId().getValue(),
+          status.getMessage()));
+      metrics.unhealthyTaskKilled(getNodeType(status.getTaskId()));
+      driver.killTask(status.getTaskId());
+    }
+
     if (isTerminalState(status)) {
       liveState.removeRunningTask(status.getTaskId());
       persistenceStore.removeTaskId(status.getTaskId().getValue());
+      configPusher.forget(status.getTaskId().getValue());
       // Correct the phase when a task dies after the reconcile period is over
       if (!liveState.getCurrentAcquisitionPhase().equals(AcquisitionPhase.RECONCILING_TASKS)) {
         correctCurrentPhase();
+        // the node is launched again, possibly on an agent whose offers were turned down
+        reviveOffers(driver);
       }
     } else if (isRunningState(status)) {
+      // running tasks report again on health changes and while region servers are drained
+      boolean wasRunning = liveState.getRunningTasks().containsKey(status.getTaskId().getValue());
       liveState.updateTaskForStatus(status);
 
       log.info(String.format("Current Acquisition Phase: %s", liveState
@@ -186,16 +306,23 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
           if (liveState.getMasterNodeSize() == HBaseConstants.TOTAL_MASTER_NODES)
           {
             // TODO (elingg) move the reload to correctCurrentPhase and make it idempotent
-            reloadConfigsOnAllRunningTasks(driver);
+            configReloader.requestReload(driver);
             correctCurrentPhase();
+            // offers turned down for the masters are wanted for the region servers now
+            reviveOffers(driver);
           }
           break;
         // TODO (elingg) add a configurable number of data nodes
         case SLAVE_NODES:
-          reloadConfigsOnAllRunningTasks(driver); // all nodes need fetch
-                                                  // HBaseConstants.REGION_SERVERS_FILENAME
+          // all nodes need fetch HBaseConstants.REGION_SERVERS_FILENAME, region servers coming
+          // up together are announced with a single reload
+          if (!wasRunning) {
+            configReloader.requestReload(driver);
+          }
           break;
       }
+    } else if (status.getState() == TaskState.TASK_STARTING) {
+      log.info(String.format("Executor of taskId=%s is up", status.getTaskId().getValue()));
     } else {
       log.warn(String.format("Don't know how to handle state=%s for taskId=%s",
           status.getState(), status.getTaskId().getValue()));
@@ -205,35 +332,77 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
   @Override
   public void resourceOffers(SchedulerDriver driver, List<Offer> offers) {
     log.info(String.format("Received %d offers", offers.size()));
+    long start = System.nanoTime();
+    try {
+      matchOffers(driver, offers);
+    } finally {
+      metrics.resourceOffersHandled(System.nanoTime() - start);
+    }
+  }
 
-    // TODO (elingg) within each phase, accept offers based on the number of nodes you need
-    boolean acceptedOffer = false;
-    for (Offer offer : offers) {
-      if (acceptedOffer) {
-        driver.declineOffer(offer.getId());
-      } else {
+  private void matchOffers(SchedulerDriver driver, List<Offer> offers) {
+    metrics.offersReceived(offers.size());
+    if (liveState.getCurrentAcquisitionPhase() == AcquisitionPhase.RECONCILING_TASKS) {
+      log.info("Declining offers while reconciling tasks");
+      for (Offer offer : offers) {
+        decline(driver, offer, EnumSet.of(DeclineReason.RECONCILING));
+      }
+      return;
+    }
+
+    // Match every offer of the batch, the batch keeps track of what has been placed so far
+    OfferBatch batch = new OfferBatch(persistenceStore);
+    List<OfferResources> matchedOffers = new ArrayList<>();
+    try {
+      for (Offer offer : offers) {
+        OfferResources offerResources = new OfferResources(offer);
+        matchedOffers.add(offerResources);
         switch (liveState.getCurrentAcquisitionPhase()) {
-          case RECONCILING_TASKS:
-            log.info("Declining offers while reconciling tasks");
-            driver.declineOffer(offer.getId());
-            break;
           case START_MASTER_NODES:
-            if (tryToLaunchMasterNode(driver, offer)) {
-              acceptedOffer = true;
-            } else {
-              driver.declineOffer(offer.getId());
-            }
+            tryToLaunchMasterNode(offerResources, batch);
             break;
           case SLAVE_NODES:
-            if (tryToLaunchSlaveNode(driver, offer)) {
-              acceptedOffer = true;
-            } else {
-              driver.declineOffer(offer.getId());
-            }
+            // pack a stargate node next to the region server if the offer has room left
+            tryToLaunchSlaveNode(offerResources, batch);
+            tryToLaunchStargateNode(offerResources, batch);
+            break;
+          default:
             break;
         }
       }
+      if (batch.getLaunchedTasks() > 0) {
+        // the launched nodes are written in the background, make sure they are stored before the
+        // tasks are started so a failover doesn't lose track of them
+        persistenceStore.flush();
+      }
+    } catch (PersistenceException e) {
+      log.error("Unable to store the nodes placed on the offers, declining them", e);
+      for (OfferResources offerResources : matchedOffers) {
+        forgetTasks(offerResources.getTasks());
+      }
+      for (Offer offer : offers) {
+        decline(driver, offer, EnumSet.of(DeclineReason.STATE_UNAVAILABLE));
+      }
+      return;
+    }
+
+    for (OfferResources offerResources : matchedOffers) {
+      if (offerResources.getTasks().isEmpty()) {
+        decline(driver, offerResources.getOffer(), offerResources.getDeclineReasons());
+      } else {
+        // only counted once the nodes are stored, until then the offer may still be declined
+        for (TaskInfo task : offerResources.getTasks()) {
+          metrics.nodeLaunched(offerResources.getOffer().getId().getValue(),
+              offerResources.getHostname(), getNodeType(task.getTaskId()),
+              task.getTaskId().getValue());
+        }
+        metrics.offerAccepted();
+        driver.launchTasks(Arrays.asList(offerResources.getOffer().getId()),
+            offerResources.getTasks());
+      }
     }
+    log.info(String.format("Launched %d tasks from %d offers", batch.getLaunchedTasks(),
+        offers.size()));
   }
 
   @Override
@@ -261,7 +430,12 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
       throw new SchedulerException(msg, e);
     }
 
-    registerFramework(this, frameworkInfo.build(), hbaseFrameworkConfig.getMesosMasterUri());
+    try {
+      registerFramework(this, frameworkInfo.build(), hbaseFrameworkConfig.getMesosMasterUri());
+    } finally {
+      // the driver stopped, nothing scheduled is of use anymore
+      shutdown();
+    }
   }
 
   private void registerFramework(HBaseScheduler sched, FrameworkInfo fInfo, String masterUri) {
@@ -293,38 +467,129 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
     return null;
   }
 
-  private boolean launchNode(SchedulerDriver driver, Offer offer,
+  /**
+   * Declines an offer with a refuse filter, Mesos sends the agent's resources again once it
+   * expires or offers are revived. An offer rejected for several reasons is held back for the
+   * shortest of their filters.
+   */
+  private void decline(SchedulerDriver driver, Offer offer, Set<DeclineReason> reasons) {
+    if (reasons.isEmpty()) {
+      metrics.offerDeclined(null);
+      driver.declineOffer(offer.getId());
+      return;
+    }
+    int refuseSeconds = Integer.MAX_VALUE;
+    DeclineReason shortest = null;
+    for (DeclineReason reason : reasons) {
+      if (getRefuseSeconds(reason) < refuseSeconds) {
+        refuseSeconds = getRefuseSeconds(reason);
+        shortest = reason;
+      }
+    }
+    metrics.offerDeclined(shortest.name());
+    log.info(String.format("Declining offer %s from %s for %d seconds: %s",
+        offer.getId().getValue(), offer.getHostname(), refuseSeconds, reasons));
+    driver.declineOffer(offer.getId(), Filters.newBuilder().setRefuseSeconds(refuseSeconds)
+        .build());
+  }
+
+  /**
+   * Records why a node is not launched on an offer.
+   */
+  private void reject(OfferResources offer, String nodeType, DeclineReason reason,
+      String detail) {
+    log.info(String.format("Not launching %s on %s: %s", nodeType, offer.getHostname(), detail));
+    offer.rejectedFor(reason);
+    metrics.nodeRejected(offer.getOffer().getId().getValue(), offer.getHostname(), nodeType,
+        reason.name(), detail);
+  }
+
+  private int getRefuseSeconds(DeclineReason reason) {
+    switch (reason) {
+      case INSUFFICIENT_RESOURCES:
+        return hbaseFrameworkConfig.getRefuseSecondsForInsufficientResources();
+      case COLOCATION:
+        return hbaseFrameworkConfig.getRefuseSecondsForColocation();
+      case RECONCILING:
+        return hbaseFrameworkConfig.getRefuseSecondsWhileReconciling();
+      case ALL_RUNNING:
+        return hbaseFrameworkConfig.getRefuseSecondsWhenAllRunning();
+      case AWAITING_DEAD_NODE:
+        // the dead node timeout may be over any moment
+        return DEFAULT_REFUSE_SECONDS;
+      case STATE_UNAVAILABLE:
+        // failed writes are retried, the store may be back any moment
+        return DEFAULT_REFUSE_SECONDS;
+      default:
+        throw new IllegalArgumentException("Unknown decline reason " + reason);
+    }
+  }
+
+  /**
+   * Clears the refuse filters of declined offers, called whenever the scheduler needs offers it
+   * may have turned down before.
+   */
+  private void reviveOffers(SchedulerDriver driver) {
+    log.info("Reviving offers");
+    driver.reviveOffers();
+  }
+
+  /**
+   * Drops the tasks of offers which are declined after all. Their hosts get back the nodes they
+   * had, they are not dead nodes.
+   */
+  private void forgetTasks(List<TaskInfo> tasks) {
+    for (TaskInfo task : tasks) {
+      liveState.forgetStagingTask(task.getTaskId());
+      try {
+        persistenceStore.forgetNode(task.getTaskId().getValue());
+      } catch (PersistenceException e) {
+        // removed once the tasks are reconciled
+        log.warn("Unable to forget never launched taskId=" + task.getTaskId().getValue(), e);
+      }
+    }
+  }
+
+  private boolean launchNode(OfferResources offerResources, OfferBatch batch,
       String nodeName, String taskType, String executorName) {
     // nodeName is the type of executor to launch
     // executorName is to distinguish different types of nodes
     // taskType is the type of task in mesos to launch on the node
     // taskName is a name chosen to identify the task in mesos and mesos-dns (if used)
     log.info(String.format("Launching node of type %s with task %s", nodeName, taskType));
-    String taskIdName = String.format("%s.%s.%d", nodeName, executorName,
-        System.currentTimeMillis());
+    // several nodes are launched within the same millisecond from one batch of offers
+    String taskIdName = String.format("%s.%s.%d.%d", nodeName, executorName,
+        System.currentTimeMillis(), taskSequence.incrementAndGet());
     List<Resource> resources = getExecutorResources();
     ExecutorInfo executorInfo = createExecutor(taskIdName, taskType, nodeName, executorName,
         resources);
 
     List<Resource> taskResources = getTaskResources(taskType);
-    String taskName = getNextTaskName(taskType);
+    String taskName = getNextTaskName(taskType, batch);
     TaskID taskId = TaskID.newBuilder()
         .setValue(String.format("task.%s.%s", taskType, taskIdName))
         .build();
-    TaskInfo task = TaskInfo.newBuilder()
+    TaskInfo.Builder taskBuilder = TaskInfo.newBuilder()
         .setExecutor(executorInfo)
         .setName(taskName)
         .setTaskId(taskId)
-        .setSlaveId(offer.getSlaveId())
+        .setSlaveId(offerResources.getOffer().getSlaveId())
         .addAllResources(taskResources)
         .setData(ByteString.copyFromUtf8(
-            getCommand(taskType)))
-        .build();
+            getCommand(taskType)));
+    if (hbaseFrameworkConfig.usingHealthChecks()) {
+      taskBuilder.setHealthCheck(getHealthCheck(taskType));
+    }
+    TaskInfo task = taskBuilder.build();
 
-    liveState.addStagingTask(task.getTaskId());
-    persistenceStore.addHBaseNode(taskId, offer.getHostname(), taskType, taskName);
+    // throws if the node map can't be read, nothing has been changed for the node then
+    persistenceStore.addHBaseNode(taskId, offerResources.getHostname(), taskType, taskName);
+    liveState.addStagingTask(task.getTaskId(), taskType);
+    batch.launched(taskType, offerResources.getHostname(), taskName);
 
-    driver.launchTasks(Arrays.asList(offer.getId()), Arrays.asList(task));
+    List<Resource> placedResources = new ArrayList<>(resources);
+    placedResources.addAll(taskResources);
+    offerResources.addTask(task, placedResources);
     return true;
   }
 
@@ -337,12 +602,34 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
       return String.format("bin/hbase-mesos-%s", taskType);
   }
 
-  private String getNextTaskName(String taskType) {
+  /**
+   * Mesos runs health checks of command tasks only, the executor probes the node itself and
+   * reports the result in the healthy field of its status updates.
+   */
+  private HealthCheck getHealthCheck(String taskType) {
+    int port;
+    if (HBaseConstants.MASTER_NODE_ID.equals(taskType)) {
+      port = hbaseFrameworkConfig.getMasterInfoPort();
+    } else if (HBaseConstants.STARGATE_NODE_ID.equals(taskType)) {
+      port = hbaseFrameworkConfig.getStargateServerPort();
+    } else {
+      port = hbaseFrameworkConfig.getRegionServerInfoPort();
+    }
+    return HealthCheck.newBuilder()
+        .setHttp(HealthCheck.HTTP.newBuilder()
+            .setPort(port)
+            .setPath(hbaseFrameworkConfig.getHealthCheckPath(taskType)))
+        .setIntervalSeconds(hbaseFrameworkConfig.getHealthCheckInterval())
+        .setTimeoutSeconds(hbaseFrameworkConfig.getHealthCheckTimeout())
+        .setConsecutiveFailures(hbaseFrameworkConfig.getHealthCheckConsecutiveFailures())
+        .build();
+  }
+
+  private String getNextTaskName(String taskType, OfferBatch batch) {
 
     if (taskType.equals(HBaseConstants.MASTER_NODE_ID)) {
-      Collection<String> masterNodeTaskNames = persistenceStore.getPrimaryNodeTaskNames().values();
       for (int i = 1; i <= HBaseConstants.TOTAL_MASTER_NODES; i++) {
-        if (!masterNodeTaskNames.contains(HBaseConstants.MASTER_NODE_ID + i)) {
+        if (!batch.masterTaskNameTaken(HBaseConstants.MASTER_NODE_ID + i)) {
           return HBaseConstants.MASTER_NODE_ID + i;
         }
       }
@@ -359,7 +646,9 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
       List<Resource> resources) {
     int confServerPort = hbaseFrameworkConfig.getConfigServerPort();
 
-    String cmd = "export JAVA_HOME=$MESOS_DIRECTORY/" + hbaseFrameworkConfig.getJreVersion()
+    String checksum = executorArtifact.getChecksum();
+    String cmd = (checksum == null ? "" : unpackExecutorCmd(checksum))
+        + "export JAVA_HOME=$MESOS_DIRECTORY/" + hbaseFrameworkConfig.getJreVersion()
         + " && env ; cd hbase-mesos-* && "
         + "exec `if [ -z \"$JAVA_HOME\" ]; then echo java; "
         + "else echo $JAVA_HOME/bin/java; fi` "
@@ -375,13 +664,7 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
         .setCommand(CommandInfo
             .newBuilder()
             .addAllUris(Arrays.asList(
-                CommandInfo.URI
-                    .newBuilder()
-                    .setValue(String.format("http://%s:%d/%s",
-                        hbaseFrameworkConfig.getFrameworkHostAddress(),
-                        confServerPort,
-                        HBaseConstants.HBASE_BINARY_FILE_NAME))
-                    .build(),
+                createExecutorUri(checksum),
                 CommandInfo.URI
                     .newBuilder()
                     .setValue(String.format("http://%s:%d/%s",
@@ -403,6 +686,7 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
                 CommandInfo.URI
                     .newBuilder()
                     .setValue(hbaseFrameworkConfig.getJreUrl())
+                    .setCache(hbaseFrameworkConfig.usingFetcherCache())
                     .build()))
             .setEnvironment(Environment
                 .newBuilder()
@@ -421,6 +705,46 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
         .build();
   }
 
+  /**
+   * The executor tarball is addressed by its checksum, so agents can keep it in their fetcher
+   * cache and a new tarball is never mistaken for a cached one. Without a checksum the fetcher
+   * downloads and unpacks it on every launch.
+   */
+  private CommandInfo.URI createExecutorUri(String checksum) {
+    String address = String.format("http://%s:%d/",
+        hbaseFrameworkConfig.getFrameworkHostAddress(),
+        hbaseFrameworkConfig.getConfigServerPort());
+    if (checksum == null) {
+      return CommandInfo.URI.newBuilder()
+          .setValue(address + HBaseConstants.HBASE_BINARY_FILE_NAME)
+          .build();
+    }
+    return CommandInfo.URI.newBuilder()
+        .setValue(address + checksum + "/" + HBaseConstants.HBASE_BINARY_FILE_NAME)
+        .setCache(hbaseFrameworkConfig.usingFetcherCache())
+        .setExtract(false)
+        .build();
+  }
+
+  /**
+   * Shell commands unpacking the executor tarball. The unpacked copy is kept in the agent's
+   * artifact cache dir under the tarball's checksum and hard linked into the sandbox, so executors
+   * launched on the agent later skip the unpacking. Files replaced in the sandbox get a new inode,
+   * the cached copy stays as it is. Falls back to unpacking into the sandbox.
+   */
+  private String unpackExecutorCmd(String checksum) {
+    String tarball = HBaseConstants.HBASE_BINARY_FILE_NAME;
+    String cacheDir = hbaseFrameworkConfig.getArtifactCacheDir();
+    String unpacked = cacheDir + "/" + checksum;
+    return "(if [ ! -d " + unpacked + " ]; then "
+        + "mkdir -p " + cacheDir
+        + " && UNPACK=`mktemp -d " + cacheDir + "/.unpack.XXXXXX`"
+        + " && { tar -xzf " + tarball + " -C $UNPACK && chmod 755 $UNPACK"
+        + " && mv -T $UNPACK " + unpacked + " || rm -rf $UNPACK; }; fi"
+        + " && { cp -al " + unpacked + "/. . 2>/dev/null || cp -a " + unpacked + "/. .; })"
+        + " || tar -xzf " + tarball + " ; rm -f " + tarball + " ; ";
+  }
+
   private String getJvmOpts(String taskType)
   {
     if (HBaseConstants.STARGATE_NODE_ID.equals(taskType))
@@ -490,52 +814,60 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
             .build());
   }
 
-  private boolean acceptOffer(Offer offer, String nodeType, double cpu, int memory)
+  private boolean acceptOffer(OfferResources offerResources, String nodeType, double cpu,
+      int memory)
   {
-    if (offerNotEnoughCpu(offer, cpu))
+    if (offerNotEnoughCpu(offerResources, cpu))
     {
-      log.info(nodeType + " node offer does not have enough cpu.\n Required " + cpu
-          + ". (ConfNodeCpus)");
+      reject(offerResources, nodeType, DeclineReason.INSUFFICIENT_RESOURCES,
+          "Offer does not have enough cpu. Required " + cpu + " (ConfNodeCpus)");
       return false;
     }
-    else if (offerNotEnoughMemory(offer, memory))
+    else if (offerNotEnoughMemory(offerResources, memory))
     {
       double requiredMem = (memory * hbaseFrameworkConfig.getJvmOverhead())
           + (hbaseFrameworkConfig.getExecutorHeap() * hbaseFrameworkConfig.getJvmOverhead());
-      String memLog = "Required " + requiredMem + " mem (" + nodeType
-          + "NodeHeapSize * jvmOverhead) + (executorHeap * jvmOverhead)";
-      log.info(nodeType + " node offer does not have enough memory.\n" + memLog);
+      reject(offerResources, nodeType, DeclineReason.INSUFFICIENT_RESOURCES,
+          "Offer does not have enough memory. Required " + requiredMem
+              + " mem (nodeHeapSize * jvmOverhead) + (executorHeap * jvmOverhead)");
       return false;
     } else {
       return true;
     }
   }
 
-  private boolean tryToLaunchMasterNode(SchedulerDriver driver, Offer offer)
+  private boolean tryToLaunchMasterNode(OfferResources offer, OfferBatch batch)
   {
-    if (!acceptOffer(offer, "master", hbaseFrameworkConfig.getMasterNodeCpus(),
+    if (!acceptOffer(offer, HBaseConstants.MASTER_NODE_ID,
+        hbaseFrameworkConfig.getMasterNodeCpus(),
         hbaseFrameworkConfig.getMasterNodeHeapSize()))
       return false;
 
     boolean launch = false;
-    List<String> deadMasterNodes = persistenceStore.getDeadMasterNodes();
+    List<String> deadMasterNodes = batch.getDeadMasterNodes();
 
     if (deadMasterNodes.isEmpty()) {
-      if (persistenceStore.getPrimaryNodes().size() == HBaseConstants.TOTAL_MASTER_NODES) {
-        log.info(String.format("Already running %s masters", HBaseConstants.TOTAL_MASTER_NODES));
-      } else if (persistenceStore.masterNodeRunningOnSlave(offer.getHostname())) {
-        log.info(String.format("Already running masternode on %s", offer.getHostname()));
-      } else if (persistenceStore.slaveNodeRunningOnSlave(offer.getHostname())) {
-        log.info(String.format("Cannot colocate masternode and slavenode on %s", offer.getHostname()));
+      if (batch.getMasterNodeCount() >= HBaseConstants.TOTAL_MASTER_NODES) {
+        reject(offer, HBaseConstants.MASTER_NODE_ID, DeclineReason.ALL_RUNNING,
+            String.format("Already running %s masters", HBaseConstants.TOTAL_MASTER_NODES));
+      } else if (batch.masterNodeRunningOn(offer.getHostname())) {
+        reject(offer, HBaseConstants.MASTER_NODE_ID, DeclineReason.COLOCATION,
+            String.format("Already running masternode on %s", offer.getHostname()));
+      } else if (batch.slaveNodeRunningOn(offer.getHostname())) {
+        reject(offer, HBaseConstants.MASTER_NODE_ID, DeclineReason.COLOCATION,
+            String.format("Cannot colocate masternode and slavenode on %s", offer.getHostname()));
       } else {
         launch = true;
       }
     } else if (deadMasterNodes.contains(offer.getHostname())) {
       launch = true;
+    } else {
+      reject(offer, HBaseConstants.MASTER_NODE_ID, DeclineReason.AWAITING_DEAD_NODE,
+          "Waiting for dead nodes to come back on " + deadMasterNodes);
     }
     if (launch) {
-      return launchNode(driver,
-          offer,
+      return launchNode(offer,
+          batch,
           HBaseConstants.MASTER_NODE_ID,
           HBaseConstants.MASTER_NODE_ID,
           HBaseConstants.NODE_EXECUTOR_ID);
@@ -543,31 +875,34 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
     return false;
   }
 
-  private boolean tryToLaunchSlaveNode(SchedulerDriver driver, Offer offer) {
-    if (!acceptOffer(offer, "slave", hbaseFrameworkConfig.getMasterNodeCpus(),
-        hbaseFrameworkConfig.getMasterNodeHeapSize()))
+  private boolean tryToLaunchSlaveNode(OfferResources offer, OfferBatch batch) {
+    if (!acceptOffer(offer, HBaseConstants.SLAVE_NODE_ID, hbaseFrameworkConfig.getSlaveNodeCpus(),
+        hbaseFrameworkConfig.getSlaveNodeHeapSize()))
       return false;
 
     boolean launch = false;
-    List<String> deadDataNodes = persistenceStore.getDeadDataNodes();
+    List<String> deadDataNodes = batch.getDeadSlaveNodes();
     // TODO (elingg) Relax this constraint to only wait for DN's when the number of DN's is small
     // What number of DN's should we try to recover or should we remove this constraint
     // entirely?
     if (deadDataNodes.isEmpty()) {
-      if (persistenceStore.slaveNodeRunningOnSlave(offer.getHostname())
-          || persistenceStore.masterNodeRunningOnSlave(offer.getHostname()))
+      if (batch.slaveNodeRunningOn(offer.getHostname())
+          || batch.masterNodeRunningOn(offer.getHostname()))
       {
-        log.info(String.format("Already running hbase task on %s", offer.getHostname()));
-        return tryToLaunchStargateNode(driver, offer);
+        reject(offer, HBaseConstants.SLAVE_NODE_ID, DeclineReason.COLOCATION,
+            String.format("Already running hbase task on %s", offer.getHostname()));
       } else {
         launch = true;
       }
     } else if (deadDataNodes.contains(offer.getHostname())) {
       launch = true;
+    } else {
+      reject(offer, HBaseConstants.SLAVE_NODE_ID, DeclineReason.AWAITING_DEAD_NODE,
+          "Waiting for dead nodes to come back on " + deadDataNodes);
     }
     if (launch) {
-      return launchNode(driver,
-          offer,
+      return launchNode(offer,
+          batch,
           HBaseConstants.SLAVE_NODE_ID,
           HBaseConstants.SLAVE_NODE_ID,
           HBaseConstants.NODE_EXECUTOR_ID);
@@ -575,28 +910,36 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
     return false;
   }
 
-  private boolean tryToLaunchStargateNode(SchedulerDriver driver, Offer offer)
+  private boolean tryToLaunchStargateNode(OfferResources offer, OfferBatch batch)
   {
-    if (!acceptOffer(offer, "stargate", hbaseFrameworkConfig.getStargateNodeCpus(),
+    if (!acceptOffer(offer, HBaseConstants.STARGATE_NODE_ID,
+        hbaseFrameworkConfig.getStargateNodeCpus(),
         hbaseFrameworkConfig.getStargateNodeHeapSize()))
       return false;
 
     boolean launch = false;
-    List<String> deadStargateNodes = persistenceStore.getDeadStargateNodes();
+    List<String> deadStargateNodes = batch.getDeadStargateNodes();
 
     if (deadStargateNodes.isEmpty()) {
-      if (persistenceStore.getStargateNodes().size() >= hbaseFrameworkConfig.getStargateNodeCount()) {
-        log.info(String.format("Already running %s stargate nodes",
-            hbaseFrameworkConfig.getStargateNodeCount()));
+      if (batch.getStargateNodeCount() >= hbaseFrameworkConfig.getStargateNodeCount()) {
+        reject(offer, HBaseConstants.STARGATE_NODE_ID, DeclineReason.ALL_RUNNING,
+            String.format("Already running %s stargate nodes",
+                hbaseFrameworkConfig.getStargateNodeCount()));
+      } else if (batch.stargateNodeRunningOn(offer.getHostname())) {
+        reject(offer, HBaseConstants.STARGATE_NODE_ID, DeclineReason.COLOCATION,
+            String.format("Already running stargate node on %s", offer.getHostname()));
       } else {
         launch = true;
       }
     } else if (deadStargateNodes.contains(offer.getHostname())) {
       launch = true;
+    } else {
+      reject(offer, HBaseConstants.STARGATE_NODE_ID, DeclineReason.AWAITING_DEAD_NODE,
+          "Waiting for dead nodes to come back on " + deadStargateNodes);
     }
     if (launch) {
-      return launchNode(driver,
-          offer,
+      return launchNode(offer,
+          batch,
           HBaseConstants.STARGATE_NODE_ID,
           HBaseConstants.STARGATE_NODE_ID,
           HBaseConstants.NODE_EXECUTOR_ID);
@@ -608,13 +951,18 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
       SlaveID slaveID, String message) {
     log.info(String.format("Sending message '%s' to taskId=%s, slaveId=%s", message,
         taskId.getValue(), slaveID.getValue()));
+    sendMessageTo(driver, taskId, slaveID, message.getBytes(Charset.defaultCharset()));
+  }
+
+  private void sendMessageTo(SchedulerDriver driver, TaskID taskId,
+      SlaveID slaveID, byte[] message) {
     String postfix = taskId.getValue();
     postfix = postfix.substring(postfix.indexOf('.') + 1, postfix.length());
     postfix = postfix.substring(postfix.indexOf('.') + 1, postfix.length());
     driver.sendFrameworkMessage(
         ExecutorID.newBuilder().setValue("executor." + postfix).build(),
         slaveID,
-        message.getBytes(Charset.defaultCharset()));
+        message);
   }
 
   private boolean isTerminalState(TaskStatus taskStatus) {
@@ -637,9 +985,18 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
     if (hbaseFrameworkConfig.usingNativeHadoopBinaries()) {
       return;
     }
-    for (Protos.TaskStatus taskStatus : liveState.getRunningTasks().values()) {
-      sendMessageTo(driver, taskStatus.getTaskId(), taskStatus.getSlaveId(),
-          HBaseConstants.RELOAD_CONFIG);
+    for (Protos.TaskStatus taskStatus : liveState.getRunningTaskStatuses()) {
+      // push the changed files along, executors fall back to fetching them on a plain reload
+      byte[] message;
+      try {
+        message = configPusher.messageFor(taskStatus.getTaskId().getValue());
+      } catch (IOException e) {
+        log.error("Unable to render config files, asking executors to fetch them", e);
+        message = HBaseConstants.RELOAD_CONFIG.getBytes(Charset.defaultCharset());
+      }
+      log.info(String.format("Sending config (%d bytes) to taskId=%s, slaveId=%s",
+          message.length, taskStatus.getTaskId().getValue(), taskStatus.getSlaveId().getValue()));
+      sendMessageTo(driver, taskStatus.getTaskId(), taskStatus.getSlaveId(), message);
     }
   }
 
@@ -651,36 +1008,25 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
     }
   }
 
-  private boolean offerNotEnoughCpu(Offer offer, double cpus) {
-    for (Resource offerResource : offer.getResourcesList()) {
-      if (offerResource.getName().equals("cpus") &&
-          cpus + hbaseFrameworkConfig.getExecutorCpus() > offerResource.getScalar().getValue()) {
-        return true;
-      }
-    }
-    return false;
+  /**
+   * @return the node type in the task id, e.g. slavenode for task.slavenode.x
+   */
+  private String getNodeType(TaskID taskId) {
+    String[] parts = taskId.getValue().split("\\.", 3);
+    return parts.length == 3 ? parts[1] : null;
   }
 
-  private boolean offerNotEnoughMemory(Offer offer, int mem) {
-    for (Resource offerResource : offer.getResourcesList()) {
-      if (offerResource.getName().equals("mem") &&
-          (mem * hbaseFrameworkConfig.getJvmOverhead())
-              + (hbaseFrameworkConfig.getExecutorHeap() * hbaseFrameworkConfig.getJvmOverhead())
-              > offerResource.getScalar().getValue()) {
-        return true;
-      }
-    }
-    return false;
+  private boolean offerNotEnoughCpu(OfferResources offerResources, double cpus) {
+    return !offerResources.hasScalar("cpus", cpus + hbaseFrameworkConfig.getExecutorCpus());
+  }
+
+  private boolean offerNotEnoughMemory(OfferResources offerResources, int mem) {
+    return !offerResources.hasScalar("mem", (mem * hbaseFrameworkConfig.getJvmOverhead())
+        + (hbaseFrameworkConfig.getExecutorHeap() * hbaseFrameworkConfig.getJvmOverhead()));
   }
 
   private void reconcileTasks(SchedulerDriver driver) {
-    // TODO (elingg) run this method repeatedly with exponential backoff in the case that it takes
-    // time for
-    // different slaves to reregister upon master failover.
-    driver.reconcileTasks(Collections.<Protos.TaskStatus>emptyList());
-    Timer timer = new Timer();
-    timer.schedule(new ReconcileStateTask(), hbaseFrameworkConfig.getReconciliationTimeout()
-        * SECONDS_FROM_MILLIS);
+    reconciler.start(driver, persistenceStore.getAllTaskIds());
   }
 
   private String getHdfsFileUrl()
@@ -716,25 +1062,22 @@ public class HBaseScheduler implements org.apache.mesos.Scheduler, Runnable {
         HBaseConstants.HDFS_CONFIG_FILE_NAME);
   }
 
-  private class ReconcileStateTask extends TimerTask {
-
-    @Override
-    public void run() {
-      log.info("Current persistent state:");
-      log.info(String.format("Primary Nodes: %s, %s", persistenceStore.getPrimaryNodes(),
-          persistenceStore.getPrimaryNodeTaskNames()));
-      log.info(String.format("Slave Nodes: %s", persistenceStore.getRegionNodes()));
+  private void completeReconciliation(SchedulerDriver driver) {
+    log.info("Current persistent state:");
+    log.info(String.format("Primary Nodes: %s, %s", persistenceStore.getPrimaryNodes(),
+        persistenceStore.getPrimaryNodeTaskNames()));
+    log.info(String.format("Slave Nodes: %s", persistenceStore.getRegionNodes()));
 
-      Set<String> taskIds = persistenceStore.getAllTaskIds();
-      Set<String> runningTaskIds = liveState.getRunningTasks().keySet();
+    Set<String> taskIds = persistenceStore.getAllTaskIds();
+    Set<String> runningTaskIds = liveState.getRunningTasks().keySet();
 
-      for (String taskId : taskIds) {
-        if (taskId != null && !runningTaskIds.contains(taskId)) {
-          log.info("Removing task id: " + taskId);
-          persistenceStore.removeTaskId(taskId);
-        }
+    for (String taskId : taskIds) {
+      if (taskId != null && !runningTaskIds.contains(taskId)) {
+        log.info("Removing task id: " + taskId);
+        persistenceStore.removeTaskId(taskId);
       }
-      correctCurrentPhase();
     }
+    correctCurrentPhase();
+    reviveOffers(driver);
   }
 }
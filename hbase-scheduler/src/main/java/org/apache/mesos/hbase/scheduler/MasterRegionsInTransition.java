@@ -0,0 +1,69 @@
+package org.apache.mesos.hbase.scheduler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.apache.mesos.hbase.state.IPersistentStateStore;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Reads the regions in transition from the assignment manager bean the active master serves on its
+ * info port. Backup masters serve no such bean.
+ */
+class MasterRegionsInTransition implements RollingRestart.RegionsInTransition {
+  private final Log log = LogFactory.getLog(MasterRegionsInTransition.class);
+
+  private static final int TIMEOUT_MILLIS = 2000;
+  // sic, the bean is named like this up to HBase 1.x
+  private static final String QUERY = "/jmx?qry=Hadoop:service=HBase,name=Master,"
+      + "sub=AssignmentManger";
+
+  private final HBaseFrameworkConfig config;
+  private final IPersistentStateStore persistenceStore;
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  MasterRegionsInTransition(HBaseFrameworkConfig config, IPersistentStateStore persistenceStore) {
+    this.config = config;
+    this.persistenceStore = persistenceStore;
+  }
+
+  @Override
+  public int count() {
+    for (Map.Entry<String, String> master : persistenceStore.getPrimaryNodes().entrySet()) {
+      if (master.getValue() == null) {
+        continue;
+      }
+      String url = String.format("http://%s:%d%s", master.getKey(), config.getMasterInfoPort(),
+          QUERY);
+      try {
+        JsonNode beans = read(new URL(url)).path("beans");
+        if (beans.size() > 0 && beans.get(0).has("ritCount")) {
+          return beans.get(0).get("ritCount").getIntValue();
+        }
+      } catch (IOException e) {
+        log.debug("Unable to read " + url, e);
+      }
+    }
+    return -1;
+  }
+
+  private JsonNode read(URL url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      connection.setConnectTimeout(TIMEOUT_MILLIS);
+      connection.setReadTimeout(TIMEOUT_MILLIS);
+      try (InputStream in = connection.getInputStream()) {
+        return mapper.readTree(in);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package org.apache.mesos.hbase.scheduler;
+
+import org.apache.mesos.hbase.state.IPersistentStateStore;
+import org.apache.mesos.hbase.util.HBaseConstants;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Snapshot of the cluster layout taken at the start of a resourceOffers call. Launches made while
+ * matching the batch are recorded here, so every offer of the batch can be matched against the
+ * nodes already placed without re-reading the persistent state after each launch.
+ */
+class OfferBatch {
+
+  private final Set<String> masterHosts = new HashSet<>();
+  private final Set<String> slaveHosts = new HashSet<>();
+  private final Set<String> stargateHosts = new HashSet<>();
+  private final Set<String> masterTaskNames = new HashSet<>();
+
+  private final List<String> deadMasterHosts;
+  private final List<String> deadSlaveHosts;
+  private final List<String> deadStargateHosts;
+
+  private int launchedTasks = 0;
+
+  OfferBatch(IPersistentStateStore persistenceStore) {
+    masterHosts.addAll(persistenceStore.getPrimaryNodes().keySet());
+    slaveHosts.addAll(persistenceStore.getRegionNodes().keySet());
+    stargateHosts.addAll(persistenceStore.getStargateNodes().keySet());
+    masterTaskNames.addAll(persistenceStore.getPrimaryNodeTaskNames().values());
+
+    deadMasterHosts = new ArrayList<>(persistenceStore.getDeadMasterNodes());
+    deadSlaveHosts = new ArrayList<>(persistenceStore.getDeadDataNodes());
+    deadStargateHosts = new ArrayList<>(persistenceStore.getDeadStargateNodes());
+  }
+
+  int getMasterNodeCount() {
+    return masterHosts.size();
+  }
+
+  int getStargateNodeCount() {
+    return stargateHosts.size();
+  }
+
+  boolean masterNodeRunningOn(String hostname) {
+    return masterHosts.contains(hostname);
+  }
+
+  boolean slaveNodeRunningOn(String hostname) {
+    return slaveHosts.contains(hostname);
+  }
+
+  boolean stargateNodeRunningOn(String hostname) {
+    return stargateHosts.contains(hostname);
+  }
+
+  List<String> getDeadMasterNodes() {
+    return deadMasterHosts;
+  }
+
+  List<String> getDeadSlaveNodes() {
+    return deadSlaveHosts;
+  }
+
+  List<String> getDeadStargateNodes() {
+    return deadStargateHosts;
+  }
+
+  boolean masterTaskNameTaken(String taskName) {
+    return masterTaskNames.contains(taskName);
+  }
+
+  int getLaunchedTasks() {
+    return launchedTasks;
+  }
+
+  /**
+   * Records a launch made while matching this batch.
+   */
+  void launched(String taskType, String hostname, String taskName) {
+    launchedTasks++;
+    switch (taskType) {
+      case HBaseConstants.MASTER_NODE_ID:
+        masterHosts.add(hostname);
+        masterTaskNames.add(taskName);
+        deadMasterHosts.remove(hostname);
+        break;
+      case HBaseConstants.SLAVE_NODE_ID:
+        slaveHosts.add(hostname);
+        deadSlaveHosts.remove(hostname);
+        break;
+      case HBaseConstants.STARGATE_NODE_ID:
+        stargateHosts.add(hostname);
+        deadStargateHosts.remove(hostname);
+        break;
+      default:
+        break;
+    }
+  }
+}
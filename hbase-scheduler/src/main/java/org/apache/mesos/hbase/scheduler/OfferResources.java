@@ -0,0 +1,77 @@
+package org.apache.mesos.hbase.scheduler;
+
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskInfo;
+import org.apache.mesos.Protos.Value;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the scalar resources left in a single offer while several tasks are packed into
+ * it, together with the tasks placed so far and why other tasks could not be placed.
+ */
+class OfferResources {
+
+  private final Offer offer;
+  private final Map<String, Double> remaining = new HashMap<>();
+  private final List<TaskInfo> tasks = new ArrayList<>();
+  private final Set<DeclineReason> declineReasons = EnumSet.noneOf(DeclineReason.class);
+
+  OfferResources(Offer offer) {
+    this.offer = offer;
+    for (Resource resource : offer.getResourcesList()) {
+      if (resource.getType() == Value.Type.SCALAR) {
+        Double current = remaining.get(resource.getName());
+        double value = resource.getScalar().getValue();
+        remaining.put(resource.getName(), current == null ? value : current + value);
+      }
+    }
+  }
+
+  Offer getOffer() {
+    return offer;
+  }
+
+  String getHostname() {
+    return offer.getHostname();
+  }
+
+  /**
+   * Resources the offer does not list are not checked.
+   */
+  boolean hasScalar(String name, double amount) {
+    Double available = remaining.get(name);
+    return available == null || available >= amount;
+  }
+
+  /**
+   * Places a task into the offer and subtracts the given resources from what is left.
+   */
+  void addTask(TaskInfo task, List<Resource> resources) {
+    tasks.add(task);
+    for (Resource resource : resources) {
+      Double available = remaining.get(resource.getName());
+      if (available != null) {
+        remaining.put(resource.getName(), available - resource.getScalar().getValue());
+      }
+    }
+  }
+
+  List<TaskInfo> getTasks() {
+    return tasks;
+  }
+
+  void rejectedFor(DeclineReason reason) {
+    declineReasons.add(reason);
+  }
+
+  Set<DeclineReason> getDeclineReasons() {
+    return declineReasons;
+  }
+}
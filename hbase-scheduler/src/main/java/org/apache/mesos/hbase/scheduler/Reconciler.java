@@ -0,0 +1,156 @@
+package org.apache.mesos.hbase.scheduler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskState;
+import org.apache.mesos.Protos.TaskStatus;
+import org.apache.mesos.SchedulerDriver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Reconciles the tasks known to the scheduler after it (re)registered. Their statuses are asked for
+ * explicitly, and asked for again with exponential backoff for the tasks not heard of yet, as agents
+ * may take a while to reregister after a master failover. The reconciliation is over as soon as
+ * every task got a status or when the timeout is up, then the master is asked once for the statuses
+ * of all the tasks it knows of.
+ */
+class Reconciler {
+  private final Log log = LogFactory.getLog(Reconciler.class);
+
+  /**
+   * Called once a reconciliation is over.
+   */
+  interface Listener {
+    void reconciled(SchedulerDriver driver);
+  }
+
+  private final SchedulerTimer timer;
+  private final long backoffMillis;
+  private final long timeoutMillis;
+  private final Listener listener;
+
+  // guarded by this, pending is null when no reconciliation is running
+  private SchedulerDriver driver;
+  private Set<String> pending;
+  private long deadline;
+  private long backoff;
+  private ScheduledFuture<?> retry;
+
+  Reconciler(SchedulerTimer timer, long backoffMillis, long timeoutMillis,
+      Listener listener) {
+    this.timer = timer;
+    this.backoffMillis = Math.max(1, backoffMillis);
+    this.timeoutMillis = timeoutMillis;
+    this.listener = listener;
+  }
+
+  /**
+   * Starts reconciling the given tasks, replacing a reconciliation still running.
+   */
+  void start(SchedulerDriver driver, Collection<String> taskIds) {
+    Set<String> tasks = new HashSet<>(taskIds);
+    tasks.remove(null);
+    synchronized (this) {
+      cancelRetry();
+      this.driver = driver;
+      this.pending = tasks;
+      this.deadline = System.currentTimeMillis() + timeoutMillis;
+      this.backoff = backoffMillis;
+      if (!tasks.isEmpty()) {
+        log.info(String.format("Reconciling %d tasks", tasks.size()));
+        requestPending();
+        return;
+      }
+      pending = null;
+    }
+    finish(driver);
+  }
+
+  /**
+   * Marks the task as accounted for, ending the reconciliation if it was the last one.
+   */
+  void statusReceived(String taskId) {
+    SchedulerDriver finishDriver;
+    synchronized (this) {
+      if (pending == null || !pending.remove(taskId) || !pending.isEmpty()) {
+        return;
+      }
+      cancelRetry();
+      pending = null;
+      finishDriver = driver;
+    }
+    finish(finishDriver);
+  }
+
+  private void retry(Set<String> tasks) {
+    SchedulerDriver finishDriver;
+    Set<String> unconfirmed;
+    synchronized (this) {
+      // a newer reconciliation replaced the one this retry was scheduled for
+      if (pending != tasks) {
+        return;
+      }
+      if (System.currentTimeMillis() < deadline) {
+        backoff *= 2;
+        log.info(String.format("Reconciling %d tasks without a status yet", pending.size()));
+        requestPending();
+        return;
+      }
+      unconfirmed = new HashSet<>(pending);
+      pending = null;
+      retry = null;
+      finishDriver = driver;
+    }
+    log.warn(String.format("No status received for tasks %s within %d ms", unconfirmed,
+        timeoutMillis));
+    finish(finishDriver);
+  }
+
+  // guarded by this
+  private void requestPending() {
+    List<TaskStatus> statuses = new ArrayList<>(pending.size());
+    for (String taskId : pending) {
+      // the state is required by the protobuf but ignored by the master
+      statuses.add(TaskStatus.newBuilder()
+          .setTaskId(TaskID.newBuilder().setValue(taskId).build())
+          .setState(TaskState.TASK_STAGING)
+          .build());
+    }
+    driver.reconcileTasks(statuses);
+
+    final Set<String> tasks = pending;
+    long delay = Math.max(0, Math.min(backoff, deadline - System.currentTimeMillis()));
+    retry = timer.schedule("reconcile", new Runnable() {
+      @Override
+      public void run() {
+        retry(tasks);
+      }
+    }, delay);
+  }
+
+  // guarded by this
+  private void cancelRetry() {
+    if (retry != null) {
+      retry.cancel(false);
+      retry = null;
+    }
+  }
+
+  private void finish(SchedulerDriver driver) {
+    // tasks the scheduler lost track of are reported by the master on an implicit reconciliation
+    driver.reconcileTasks(Collections.<TaskStatus>emptyList());
+    try {
+      listener.reconciled(driver);
+    } catch (RuntimeException e) {
+      log.error("Failed to complete task reconciliation", e);
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package org.apache.mesos.hbase.scheduler;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskStatus;
+import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
+import org.apache.mesos.hbase.state.AcquisitionPhase;
+import org.apache.mesos.hbase.state.IPersistentStateStore;
+import org.apache.mesos.hbase.state.LiveState;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Replaces the running region servers a batch at a time, e.g. to apply a changed heap size, JVM
+ * options or hbase-site.xml without taking the cluster down. The region servers of a batch are
+ * killed, their executors move their regions off first, and are launched again on the same hosts
+ * like any dead node. The next batch is killed once every replacement runs healthy and the masters
+ * have no regions in transition anymore. The rolling restart is aborted when a batch does not get
+ * there within the batch timeout. It is not persisted, a failed over scheduler does not resume it.
+ */
+@Singleton
+public class RollingRestart {
+  private final Log log = LogFactory.getLog(RollingRestart.class);
+
+  /**
+   * Tells how many regions the masters are moving.
+   */
+  public interface RegionsInTransition {
+    /**
+     * @return the regions in transition, -1 if no master told
+     */
+    int count();
+  }
+
+  /**
+   * Where a rolling restart is at.
+   */
+  public enum State {
+    IDLE, RUNNING, DONE, ABORTED
+  }
+
+  private final LiveState liveState;
+  private final IPersistentStateStore persistenceStore;
+  private final SchedulerMetrics metrics;
+  private final RegionsInTransition regionsInTransition;
+  private final int batchSize;
+  private final long batchTimeoutMillis;
+  private final long checkMillis;
+
+  // guarded by this
+  private SchedulerDriver driver;
+  private SchedulerTimer timer;
+  private State state = State.IDLE;
+  private String message;
+  private Deque<String> remaining = new ArrayDeque<>();
+  // hostname to the task id of the region server killed on it
+  private Map<String, String> batch = new LinkedHashMap<>();
+  private long deadline;
+  private int restarted;
+  private ScheduledFuture<?> check;
+
+  @Inject
+  public RollingRestart(HBaseFrameworkConfig config, LiveState liveState,
+      IPersistentStateStore persistenceStore, SchedulerMetrics metrics) {
+    this(config, liveState, persistenceStore, metrics,
+        new MasterRegionsInTransition(config, persistenceStore));
+  }
+
+  public RollingRestart(HBaseFrameworkConfig config, LiveState liveState,
+      IPersistentStateStore persistenceStore, SchedulerMetrics metrics,
+      RegionsInTransition regionsInTransition) {
+    this.liveState = liveState;
+    this.persistenceStore = persistenceStore;
+    this.metrics = metrics;
+    this.regionsInTransition = regionsInTransition;
+    this.batchSize = Math.max(1, config.getRollingRestartBatchSize());
+    this.batchTimeoutMillis = config.getRollingRestartBatchTimeout() * 1000L;
+    this.checkMillis = Math.max(1, config.getRollingRestartCheckInterval());
+  }
+
+  /**
+   * Hands over the driver of the registered scheduler, rolling restarts can be started from then
+   * on.
+   */
+  public synchronized void attach(SchedulerDriver driver, SchedulerTimer timer) {
+    this.driver = driver;
+    this.timer = timer;
+  }
+
+  /**
+   * Starts replacing the region servers running now.
+   *
+   * @return false if a rolling restart is running already or the scheduler is not registered yet
+   */
+  public synchronized boolean start() {
+    if (state == State.RUNNING || driver == null) {
+      return false;
+    }
+    List<String> hosts = new ArrayList<>();
+    for (Map.Entry<String, String> node : persistenceStore.getRegionNodes().entrySet()) {
+      if (node.getValue() != null) {
+        hosts.add(node.getKey());
+      }
+    }
+    Collections.sort(hosts);
+    log.info(String.format("Starting a rolling restart of the region servers on %s, %d at a time",
+        hosts, batchSize));
+    remaining = new ArrayDeque<>(hosts);
+    batch = new LinkedHashMap<>();
+    restarted = 0;
+    message = null;
+    state = State.RUNNING;
+    deadline = System.currentTimeMillis() + batchTimeoutMillis;
+    check = timer.scheduleAtFixedRate("rolling-restart", new Runnable() {
+      @Override
+      public void run() {
+        check();
+      }
+    }, 0, checkMillis);
+    return true;
+  }
+
+  /**
+   * Stops a running rolling restart, region servers killed already are replaced as usual.
+   *
+   * @return false if no rolling restart is running
+   */
+  public synchronized boolean cancel() {
+    if (state != State.RUNNING) {
+      return false;
+    }
+    log.info("Rolling restart cancelled");
+    finish(State.ABORTED, "Cancelled");
+    return true;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public synchronized Map<String, Object> getStatus() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("state", state.name());
+    status.put("restarted", restarted);
+    status.put("batch", new ArrayList<>(batch.keySet()));
+    status.put("remaining", new ArrayList<>(remaining));
+    if (message != null) {
+      status.put("message", message);
+    }
+    return status;
+  }
+
+  void check() {
+    // asks the masters over HTTP, not while holding the lock the config server's requests wait on
+    int regions = isAwaitingRegions() ? regionsInTransition.count() : -1;
+    synchronized (this) {
+      check(regions);
+    }
+  }
+
+  // guarded by this
+  private void check(int regions) {
+    if (state != State.RUNNING) {
+      return;
+    }
+    if (!isBatchReplaced() || !isClusterHealthy() || regions != 0) {
+      if (System.currentTimeMillis() >= deadline) {
+        String reason = batch.isEmpty()
+            ? String.format("Cluster not settled within %d s", batchTimeoutMillis / 1000)
+            : String.format("Region servers on %s not back within %d s", batch.keySet(),
+                batchTimeoutMillis / 1000);
+        log.error("Aborting the rolling restart: " + reason);
+        metrics.rollingRestartAborted();
+        finish(State.ABORTED, reason);
+      }
+      return;
+    }
+    if (!batch.isEmpty()) {
+      log.info("Replaced the region servers on " + batch.keySet());
+      metrics.rollingRestartBatchDone(batch.size());
+      restarted += batch.size();
+      batch.clear();
+    }
+    killNextBatch();
+  }
+
+  // guarded by this
+  private void killNextBatch() {
+    Map<String, String> regionNodes = persistenceStore.getRegionNodes();
+    while (batch.size() < batchSize && !remaining.isEmpty()) {
+      String host = remaining.poll();
+      String taskId = regionNodes.get(host);
+      // gone or replaced since the rolling restart started
+      if (taskId != null && isHealthy(taskId)) {
+        batch.put(host, taskId);
+      }
+    }
+    if (batch.isEmpty()) {
+      log.info(String.format("Rolling restart done, restarted %d region servers", restarted));
+      finish(State.DONE, null);
+      return;
+    }
+    log.info("Rolling restart killing the region servers on " + batch.keySet());
+    deadline = System.currentTimeMillis() + batchTimeoutMillis;
+    for (String taskId : batch.values()) {
+      driver.killTask(TaskID.newBuilder().setValue(taskId).build());
+    }
+  }
+
+  // guarded by this
+  private void finish(State finalState, String reason) {
+    state = finalState;
+    message = reason;
+    remaining.clear();
+    batch.clear();
+    if (check != null) {
+      check.cancel(false);
+      check = null;
+    }
+  }
+
+  /**
+   * Whether a new region server runs healthy on every host of the batch.
+   */
+  private boolean isBatchReplaced() {
+    Map<String, String> regionNodes = persistenceStore.getRegionNodes();
+    for (Map.Entry<String, String> killed : batch.entrySet()) {
+      String taskId = regionNodes.get(killed.getKey());
+      if (taskId == null || taskId.equals(killed.getValue()) || !isHealthy(taskId)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether the regions in transition are all the next batch waits for.
+   */
+  private synchronized boolean isAwaitingRegions() {
+    return state == State.RUNNING && isBatchReplaced() && isClusterHealthy();
+  }
+
+  /**
+   * Whether every region server runs healthy.
+   */
+  private boolean isClusterHealthy() {
+    if (liveState.getCurrentAcquisitionPhase() != AcquisitionPhase.SLAVE_NODES) {
+      return false;
+    }
+    for (String taskId : persistenceStore.getRegionNodes().values()) {
+      if (taskId == null || !isHealthy(taskId)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isHealthy(String taskId) {
+    TaskStatus status = liveState.getRunningTasks().get(taskId);
+    // reported running once it passed its readiness probe
+    return status != null && (!status.hasHealthy() || status.getHealthy());
+  }
+}
@@ -0,0 +1,112 @@
+package org.apache.mesos.hbase.scheduler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.mesos.hbase.metrics.Gauge;
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the scheduler's delayed and periodic work on a fixed number of threads, no matter how often
+ * the scheduler reregisters. Cancelled tasks are dropped from the queue right away, a failing
+ * periodic task keeps being run. How late tasks start and how many are queued is reported to the
+ * metrics.
+ */
+public class SchedulerTimer {
+  private final Log log = LogFactory.getLog(SchedulerTimer.class);
+
+  static final int THREADS = 2;
+  // how long shutdown waits for running tasks before interrupting them
+  static final int SHUTDOWN_TIMEOUT_SECONDS = 2;
+
+  private final SchedulerMetrics metrics;
+  private final ScheduledThreadPoolExecutor executor;
+
+  public SchedulerTimer(SchedulerMetrics metrics) {
+    this.metrics = metrics;
+    this.executor = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactoryBuilder()
+        .setNameFormat("scheduler-timer-%d")
+        .setDaemon(true)
+        .build());
+    executor.setRemoveOnCancelPolicy(true);
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    metrics.gauge("timer.queued", new Gauge() {
+      @Override
+      public long getValue() {
+        return getQueued();
+      }
+    });
+  }
+
+  /**
+   * Runs the task once after the delay.
+   */
+  public ScheduledFuture<?> schedule(String name, Runnable task, long delayMillis) {
+    return executor.schedule(new TimedTask(name, task, delayMillis, 0), delayMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs the task every period after the initial delay until it is cancelled.
+   */
+  public ScheduledFuture<?> scheduleAtFixedRate(String name, Runnable task,
+      long initialDelayMillis, long periodMillis) {
+    return executor.scheduleAtFixedRate(
+        new TimedTask(name, task, initialDelayMillis, periodMillis), initialDelayMillis,
+        periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public int getQueued() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Drops all queued tasks and waits for the running ones to complete.
+   */
+  public void shutdown() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public boolean isTerminated() {
+    return executor.isTerminated();
+  }
+
+  private class TimedTask implements Runnable {
+    private final String name;
+    private final Runnable task;
+    private final long periodMillis;
+    private long due;
+
+    TimedTask(String name, Runnable task, long delayMillis, long periodMillis) {
+      this.name = name;
+      this.task = task;
+      this.periodMillis = periodMillis;
+      this.due = System.currentTimeMillis() + delayMillis;
+    }
+
+    @Override
+    public void run() {
+      metrics.timerTaskRan(name, System.currentTimeMillis() - due);
+      due += periodMillis;
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        // an exception would cancel a periodic task for good
+        metrics.timerTaskFailed(name);
+        log.error("Scheduled task " + name + " failed", e);
+      }
+    }
+  }
+}
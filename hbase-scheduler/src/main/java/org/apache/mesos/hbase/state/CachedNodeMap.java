@@ -0,0 +1,62 @@
+package org.apache.mesos.hbase.state;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of a persisted node map, e.g. hostname to task id.
+ */
+class CachedNodeMap {
+
+  private final Map<String, String> values = new HashMap<>();
+
+  CachedNodeMap(Map<String, String> nodes) {
+    for (Map.Entry<String, String> node : nodes.entrySet()) {
+      put(node.getKey(), node.getValue());
+    }
+  }
+
+  /**
+   * @return the previous value of the key
+   */
+  synchronized String put(String key, String value) {
+    return values.put(key, value);
+  }
+
+  /**
+   * @return the removed value of the key
+   */
+  synchronized String remove(String key) {
+    return values.remove(key);
+  }
+
+  synchronized boolean containsKey(String key) {
+    return values.containsKey(key);
+  }
+
+  synchronized int size() {
+    return values.size();
+  }
+
+  /**
+   * Keys whose value has been cleared, e.g. hosts whose task died.
+   */
+  synchronized List<String> getKeysWithoutValue() {
+    List<String> keys = new ArrayList<>();
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      if (entry.getValue() == null) {
+        keys.add(entry.getKey());
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Copy of the map which is safe to modify and to hand over to the persistent store.
+   */
+  synchronized HashMap<String, String> snapshot() {
+    return new HashMap<>(values);
+  }
+}
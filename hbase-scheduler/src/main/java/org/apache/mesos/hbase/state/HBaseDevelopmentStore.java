@@ -4,6 +4,7 @@ package org.apache.mesos.hbase.state;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import org.apache.commons.io.Charsets;
 
@@ -14,7 +15,8 @@ import org.apache.commons.io.Charsets;
 public class HBaseDevelopmentStore implements IHBaseStore
 {
 
-    private Map<String,Object> values = new HashMap<>();
+    // also written by the state writer thread
+    private Map<String,Object> values = new ConcurrentHashMap<>();
     
     @Override
     public byte[] getRawValueForId(String id) throws ExecutionException, InterruptedException
@@ -29,9 +31,39 @@ public class HBaseDevelopmentStore implements IHBaseStore
     @Override
     public void setRawValueForId(String id, byte[] frameworkId) throws ExecutionException, InterruptedException
     {
-        values.put(id, frameworkId);
+        put(id, frameworkId);
     }
     
+    @Override
+    public Map<String, byte[]> getRawValuesForPrefix(String prefix) throws ExecutionException, InterruptedException
+    {
+        Map<String, byte[]> prefixed = new HashMap<>();
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            if (value.getKey().startsWith(prefix)) {
+                prefixed.put(value.getKey().substring(prefix.length()), (byte[]) value.getValue());
+            }
+        }
+        return prefixed;
+    }
+
+    @Override
+    public void removeRawValueForId(String id) throws ExecutionException, InterruptedException
+    {
+        values.remove(id);
+    }
+
+    @Override
+    public void setRawValues(Map<String, byte[]> values) throws ExecutionException, InterruptedException
+    {
+        for (Map.Entry<String, byte[]> value : values.entrySet()) {
+            if (value.getValue() == null) {
+                this.values.remove(value.getKey());
+            } else {
+                this.values.put(value.getKey(), value.getValue());
+            }
+        }
+    }
+
     @Override
     public <T> T get(String key) throws InterruptedException, ExecutionException, IOException, ClassNotFoundException
     {
@@ -41,7 +73,17 @@ public class HBaseDevelopmentStore implements IHBaseStore
     @Override
     public <T> void set(String key, T object) throws InterruptedException, ExecutionException, IOException
     {
-        values.put(key, object);
+        put(key, object);
+    }
+
+    private void put(String key, Object value)
+    {
+        // unlike a plain map the concurrent one holds no nulls
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
     }
     
 }
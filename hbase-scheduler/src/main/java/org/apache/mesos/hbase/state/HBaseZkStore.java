@@ -11,7 +11,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
 
@@ -24,6 +30,12 @@ public class HBaseZkStore implements IHBaseStore {
 
   private State state;
 
+  /**
+   * Last known version of every variable this scheduler has read or written, so a write doesn't
+   * need to fetch the variable first.
+   */
+  private final Map<String, Variable> variables = new ConcurrentHashMap<>();
+
   @Inject
   public HBaseZkStore(HBaseFrameworkConfig hbaseFrameworkConfig) {
 
@@ -34,19 +46,85 @@ public class HBaseZkStore implements IHBaseStore {
   }
 
   public byte[] getRawValueForId(String id) throws ExecutionException, InterruptedException {
-    byte[] value = state.fetch(id).get().value();
+    byte[] value = fetch(id).value();
     return value;
   }
 
   public void setRawValueForId(String id, byte[] frameworkId) throws ExecutionException,
       InterruptedException {
-    Variable value = state.fetch(id).get();
-    value = value.mutate(frameworkId);
-    state.store(value).get();
+    setRawValues(Collections.singletonMap(id, frameworkId));
+  }
+
+  public void setRawValues(Map<String, byte[]> values) throws ExecutionException,
+      InterruptedException {
+    // send every fetch and then every store before waiting for any of them, so a batch costs
+    // one round trip (two for variables not seen before) no matter how many ids it has
+    Map<String, Future<Variable>> fetches = new HashMap<>();
+    for (String id : values.keySet()) {
+      if (!variables.containsKey(id)) {
+        fetches.put(id, state.fetch(id));
+      }
+    }
+    Map<String, Future<Variable>> stores = new HashMap<>();
+    Map<String, Future<Boolean>> expunges = new HashMap<>();
+    for (Map.Entry<String, byte[]> value : values.entrySet()) {
+      String id = value.getKey();
+      Variable variable = fetches.containsKey(id) ? fetches.get(id).get() : variables.get(id);
+      if (value.getValue() == null) {
+        expunges.put(id, state.expunge(variable));
+      } else {
+        stores.put(id, state.store(variable.mutate(value.getValue())));
+      }
+    }
+
+    for (Map.Entry<String, Future<Variable>> store : stores.entrySet()) {
+      Variable stored = store.getValue().get();
+      if (stored == null) {
+        // the variable was changed since we last saw it, write it again on the current version
+        stored = state.store(state.fetch(store.getKey()).get()
+            .mutate(values.get(store.getKey()))).get();
+        if (stored == null) {
+          throw new ExecutionException(new IllegalStateException(
+              "Concurrent modification of " + store.getKey()));
+        }
+      }
+      variables.put(store.getKey(), stored);
+    }
+    for (Map.Entry<String, Future<Boolean>> expunge : expunges.entrySet()) {
+      variables.remove(expunge.getKey());
+      if (!expunge.getValue().get()) {
+        state.expunge(state.fetch(expunge.getKey()).get()).get();
+      }
+    }
+  }
+
+  public Map<String, byte[]> getRawValuesForPrefix(String prefix) throws ExecutionException,
+      InterruptedException {
+    // fetch all matching variables at once and wait for them afterwards
+    Map<String, Future<Variable>> fetches = new HashMap<>();
+    Iterator<String> names = state.names().get();
+    while (names.hasNext()) {
+      String name = names.next();
+      if (name.startsWith(prefix)) {
+        fetches.put(name, state.fetch(name));
+      }
+    }
+    Map<String, byte[]> values = new HashMap<>();
+    for (Map.Entry<String, Future<Variable>> fetch : fetches.entrySet()) {
+      Variable variable = fetch.getValue().get();
+      variables.put(fetch.getKey(), variable);
+      values.put(fetch.getKey().substring(prefix.length()), variable.value());
+    }
+    return values;
+  }
+
+  public void removeRawValueForId(String id) throws ExecutionException, InterruptedException {
+    setRawValues(Collections.<String, byte[]>singletonMap(id, null));
   }
 
   /**
-   * Get serializable object from store.
+   * Get serializable object from store. Only read to migrate node maps stored as a whole, they
+   * are stored as one record per node now.
    *
    * @return serialized object or null if none
    * @throws ExecutionException
@@ -58,7 +136,7 @@ public class HBaseZkStore implements IHBaseStore {
   public <T extends Object> T get(String key) throws InterruptedException, ExecutionException,
       IOException, ClassNotFoundException {
 
-    byte[] existingNodes = state.fetch(key).get().value();
+    byte[] existingNodes = fetch(key).value();
     if (existingNodes.length > 0) {
       ByteArrayInputStream bis = new ByteArrayInputStream(existingNodes);
       ObjectInputStream in = null;
@@ -87,17 +165,21 @@ public class HBaseZkStore implements IHBaseStore {
   public <T extends Object> void set(String key, T object) throws InterruptedException,
       ExecutionException, IOException {
 
-    Variable value = state.fetch(key).get();
     ByteArrayOutputStream bos = new ByteArrayOutputStream();
     ObjectOutputStream out = null;
     try {
       out = new ObjectOutputStream(bos);
       out.writeObject(object);
-      value = value.mutate(bos.toByteArray());
-      state.store(value).get();
+      setRawValueForId(key, bos.toByteArray());
     } finally {
       IOUtils.closeQuietly(bos);
       IOUtils.closeQuietly(out);
     }
   }
+
+  private Variable fetch(String id) throws ExecutionException, InterruptedException {
+    Variable variable = state.fetch(id).get();
+    variables.put(id, variable);
+    return variable;
+  }
 }
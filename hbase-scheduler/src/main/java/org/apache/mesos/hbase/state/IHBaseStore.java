@@ -1,6 +1,7 @@
 package org.apache.mesos.hbase.state;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -13,6 +14,20 @@ public interface IHBaseStore {
   void setRawValueForId(String id,
       byte[] frameworkId) throws ExecutionException, InterruptedException;
 
+  /**
+   * Returns all raw values whose id starts with the given prefix, keyed by the rest of the id.
+   */
+  Map<String, byte[]> getRawValuesForPrefix(String prefix) throws ExecutionException,
+      InterruptedException;
+
+  void removeRawValueForId(String id) throws ExecutionException, InterruptedException;
+
+  /**
+   * Writes several raw values as one batch, a null value removes the id. Returns once all of them
+   * are stored.
+   */
+  void setRawValues(Map<String, byte[]> values) throws ExecutionException, InterruptedException;
+
   <T extends Object> T get(String key) throws InterruptedException, ExecutionException,
       IOException, ClassNotFoundException;
 
@@ -21,6 +21,14 @@ public interface IPersistentStateStore {
 
   void addHBaseNode(Protos.TaskID taskId, String hostname, String taskType, String taskName);
 
+  /**
+   * Undoes {@link #addHBaseNode} for a task which is not launched after all, e.g. because the
+   * node could not be stored. The host gets back the task it had before, a host which was not
+   * known before is dropped. Only nodes added since the last successful {@link #flush()} can be
+   * forgotten.
+   */
+  void forgetNode(String taskId);
+
   Map<String, String> getPrimaryNodeTaskNames();
 
   List<String> getDeadMasterNodes();
@@ -39,4 +47,13 @@ public interface IPersistentStateStore {
 
   boolean masterNodeRunningOnSlave(String hostname);
 
+  /**
+   * Node updates are written to the store in the background. Waits until all updates made so far
+   * are stored.
+   *
+   * @throws PersistenceException if an update could not be stored, it is retried in the
+   *         background
+   */
+  void flush();
+
 }
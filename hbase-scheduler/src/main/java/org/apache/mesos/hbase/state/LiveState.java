@@ -7,11 +7,15 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.mesos.Protos;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.mesos.hbase.util.HBaseConstants;
 
 /**
@@ -25,10 +29,53 @@ public class LiveState {
   private AcquisitionPhase currentAcquisitionPhase = AcquisitionPhase.RECONCILING_TASKS;
   // TODO (nicgrayson) Might need to split this out to jns, nns, and dns if dns too big
   //TODO (elingg) we need to also track ZKFC's state
-  private Map<String, Protos.TaskStatus> runningTasks = new LinkedHashMap<>();
-  
+  // also read by the config reload timer, iterate it while holding its lock
+  private Map<String, Protos.TaskStatus> runningTasks = Collections.synchronizedMap(
+      new LinkedHashMap<String, Protos.TaskStatus>());
+  // tasks launched by this scheduler until they end, also read by the staging check timer
+  private final Map<String, TaskLifecycle> lifecycles = new ConcurrentHashMap<>();
+
   public void addStagingTask(Protos.TaskID taskId) {
+    addStagingTask(taskId, null);
+  }
+
+  public void addStagingTask(Protos.TaskID taskId, String nodeType) {
     stagingTasks.add(taskId);
+    lifecycles.put(taskId.getValue(), new TaskLifecycle(taskId.getValue(), nodeType,
+        System.currentTimeMillis()));
+  }
+
+  /**
+   * Records when a launched task reached the state of a status update. A task is forgotten once
+   * it reaches a terminal state.
+   *
+   * @return the task's lifecycle if it reached the state for the first time, otherwise null
+   */
+  public TaskLifecycle recordStatus(Protos.TaskStatus status) {
+    String taskId = status.getTaskId().getValue();
+    TaskLifecycle lifecycle = lifecycles.get(taskId);
+    if (lifecycle == null || !lifecycle.reached(status.getState(), System.currentTimeMillis())) {
+      return null;
+    }
+    if (lifecycle.getTerminal() != 0) {
+      lifecycles.remove(taskId);
+    }
+    return lifecycle;
+  }
+
+  /**
+   * @return the tasks launched before the given time which are not running yet, leaving out those
+   *         asked to be killed since that time, they are still waiting for the kill to land
+   */
+  public List<TaskLifecycle> getTasksNotRunningSince(long launchedBefore) {
+    List<TaskLifecycle> stuck = new ArrayList<>();
+    for (TaskLifecycle lifecycle : lifecycles.values()) {
+      if (!lifecycle.isRunningOrTerminal() && lifecycle.getLaunched() < launchedBefore
+          && lifecycle.getKilled() < launchedBefore) {
+        stuck.add(lifecycle);
+      }
+    }
+    return stuck;
   }
 
   public int getStagingTasksSize() {
@@ -39,10 +86,27 @@ public class LiveState {
     stagingTasks.remove(taskID);
   }
 
+  /**
+   * Forgets a staging task which is not launched after all.
+   */
+  public void forgetStagingTask(Protos.TaskID taskId) {
+    stagingTasks.remove(taskId);
+    lifecycles.remove(taskId.getValue());
+  }
+
   public Map<String, Protos.TaskStatus> getRunningTasks() {
     return runningTasks;
   }
 
+  /**
+   * Copy of the statuses of all running tasks, safe to use from any thread.
+   */
+  public List<Protos.TaskStatus> getRunningTaskStatuses() {
+    synchronized (runningTasks) {
+      return new ArrayList<>(runningTasks.values());
+    }
+  }
+
   public void removeRunningTask(Protos.TaskID taskId) {
     runningTasks.remove(taskId.getValue());
   }
@@ -65,11 +129,13 @@ public class LiveState {
   }
 
   private int countOfRunningTasksWith(final String nodeId) {      
-    return Sets.filter(runningTasks.keySet(), new Predicate<String>() {
-      @Override
-      public boolean apply(String taskId) {
-        return taskId.contains(nodeId);
-      }
-    }).size();
+    synchronized (runningTasks) {
+      return Sets.filter(runningTasks.keySet(), new Predicate<String>() {
+        @Override
+        public boolean apply(String taskId) {
+          return taskId.contains(nodeId);
+        }
+      }).size();
+    }
   }
 }
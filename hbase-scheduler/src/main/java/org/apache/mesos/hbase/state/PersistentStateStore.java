@@ -8,13 +8,15 @@ import org.apache.mesos.Protos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
 import org.apache.mesos.hbase.util.HBaseConstants;
@@ -24,7 +26,10 @@ import static org.apache.mesos.hbase.util.NodeTypes.*;
 /**
  * Persistence is handled by the Persistent State classes. This class does the
  * following:. 1) transforms raw types to hbase types and protobuf types 2)
- * handles exception logic and rethrows PersistenceException
+ * handles exception logic and rethrows PersistenceException 3) keeps the node maps in memory, so
+ * reads are answered without going to the store and only mutations are written through 4) stores
+ * every node as its own record ("masterNodes:hostname" holding the task id) so an update only
+ * writes the node that changed 5) writes node updates in the background, see {@link #flush()}
  */
 @Singleton
 public class PersistentStateStore implements IPersistentStateStore
@@ -36,8 +41,21 @@ public class PersistentStateStore implements IPersistentStateStore
 
   private DeadNodeTracker deadNodeTracker;
 
+  private final StateWriter stateWriter;
+
+  private final Map<String, CachedNodeMap> nodeMaps = new ConcurrentHashMap<>();
+
+  // task id to the node running it, for every node type
+  private final Map<String, TaskNode> taskNodes = new ConcurrentHashMap<>();
+
+  // nodes added since the last successful flush, by task id, with what they replaced
+  private final Map<String, PlacedNode> placedNodes = new ConcurrentHashMap<>();
+
   private static final String FRAMEWORK_ID_KEY = "frameworkId";
   private static final String MASTERNODE_TASKNAMES_KEY = "masterNodeTaskNames";
+  private static final String RECORD_SEPARATOR = ":";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String[] NODE_KEYS = {MASTERNODES_KEY, SLAVENODES_KEY, STARGATENODES_KEY};
 
   // TODO (elingg) we need to also track ZKFC's state
   // TODO (nicgrayson) add tests with in-memory state implementation for zookeeper
@@ -50,6 +68,7 @@ public class PersistentStateStore implements IPersistentStateStore
     }
     this.hbaseStore = hbaseStore;
     this.deadNodeTracker = deadNodeTracker;
+    this.stateWriter = new StateWriter(hbaseStore);
 
     int deadMasterNodes = getDeadMasterNodes().size();
     int deadDataNodes = getDeadDataNodes().size();
@@ -95,17 +114,35 @@ public class PersistentStateStore implements IPersistentStateStore
     }
 
   @Override
-  public void removeTaskId(String taskId)
+  public synchronized void removeTaskId(String taskId)
   {
-    // TODO (elingg) optimize this method/ Possibly index by task id instead of hostname/
-    // Possibly call removeTask(slaveId, taskId) to avoid iterating through all maps
-
-    if (removeTaskIdFromMasterNodes(taskId)
-        || removeTaskIdFromDataNodes(taskId)) {
-      logger.debug("task id: " + taskId + " removed");
-    } else {
+    // the task may be in a map not read yet, not finding it must not be for a failed read
+    for (String nodeKey : NODE_KEYS) {
+      getLoadedNodeMap(nodeKey);
+    }
+    placedNodes.remove(taskId);
+    TaskNode taskNode = taskNodes.get(taskId);
+    if (taskNode == null) {
       logger.warn("task id: " + taskId + " request to be removed doesn't exist");
+      return;
     }
+
+    putNode(taskNode.nodeKey, taskNode.hostname, null);
+    switch (taskNode.nodeKey) {
+      case MASTERNODES_KEY:
+        removeNode(MASTERNODE_TASKNAMES_KEY, taskId);
+        deadNodeTracker.resetMasterNodeTimeStamp();
+        break;
+      case SLAVENODES_KEY:
+        deadNodeTracker.resetDataNodeTimeStamp();
+        break;
+      case STARGATENODES_KEY:
+        deadNodeTracker.resetStargateNodeTimeStamp();
+        break;
+      default:
+        break;
+    }
+    logger.debug("task id: " + taskId + " removed");
   }
 
   @Override
@@ -120,265 +157,328 @@ public class PersistentStateStore implements IPersistentStateStore
         break;
       case HBaseConstants.STARGATE_NODE_ID:
         addStargateNode(taskId, hostname);
+        break;
       default:
         logger.error("Task name unknown");
     }
   }
 
-  private void addDataNode(Protos.TaskID taskId, String hostname)
+  private synchronized void addDataNode(Protos.TaskID taskId, String hostname)
   {
-    Map<String, String> dataNodes = getRegionNodes();
-    dataNodes.put(hostname, taskId.getValue());
-    setDataNodes(dataNodes);
+    placeNode(SLAVENODES_KEY, hostname, taskId.getValue());
   }
 
-  private void addStargateNode(Protos.TaskID taskId, String hostname)
+  private synchronized void addStargateNode(Protos.TaskID taskId, String hostname)
   {
-    Map<String, String> dataNodes = getStargateNodes();
-    dataNodes.put(hostname, taskId.getValue());
-    setStargateNodes(dataNodes);
+    placeNode(STARGATENODES_KEY, hostname, taskId.getValue());
   }
 
-  private void addPrimaryNode(Protos.TaskID taskId, String hostname, String taskName)
+  private synchronized void addPrimaryNode(Protos.TaskID taskId, String hostname, String taskName)
   {
-    Map<String, String> primaryNodes = getPrimaryNodes();
-    primaryNodes.put(hostname, taskId.getValue());
-    setPrimaryNodes(primaryNodes);
-    Map<String, String> primaryNodeTaskNames = getPrimaryNodeTaskNames();
-    primaryNodeTaskNames.put(taskId.getValue(), taskName);
-    setPrimaryNodeTaskNames(primaryNodeTaskNames);
+    placeNode(MASTERNODES_KEY, hostname, taskId.getValue());
+    putNode(MASTERNODE_TASKNAMES_KEY, taskId.getValue(), taskName);
+  }
+
+  private void placeNode(String key, String hostname, String taskId)
+  {
+    boolean known = getLoadedNodeMap(key).containsKey(hostname);
+    String previous = putNode(key, hostname, taskId);
+    placedNodes.put(taskId, new PlacedNode(key, hostname, known, previous));
+  }
+
+  @Override
+  public synchronized void forgetNode(String taskId)
+  {
+    PlacedNode placed = placedNodes.remove(taskId);
+    if (placed == null) {
+      logger.warn("task id: " + taskId + " request to be forgotten wasn't added since last flush");
+      return;
+    }
+    if (placed.known) {
+      putNode(placed.nodeKey, placed.hostname, placed.previousTaskId);
+    } else {
+      removeNode(placed.nodeKey, placed.hostname);
+    }
+    if (placed.nodeKey.equals(MASTERNODES_KEY)) {
+      removeNode(MASTERNODE_TASKNAMES_KEY, taskId);
+    }
+    logger.debug("task id: " + taskId + " forgotten");
   }
 
   @Override
   public Map<String, String> getPrimaryNodeTaskNames()
   {
-    return getNodesMap(MASTERNODE_TASKNAMES_KEY);
+    return getCachedNodeMap(MASTERNODE_TASKNAMES_KEY).snapshot();
   }
 
   @Override
     public List<String> getDeadMasterNodes()
     {
-        List<String> deadMasterHosts = new ArrayList<>();
-
         if (deadNodeTracker.masterNodeTimerExpired()) {
             removeDeadPrimaryNodes();
-        } else {
-            Map<String, String> masterNodes = getPrimaryNodes();
-            final Set<Map.Entry<String, String>> masterNodeEntries = masterNodes.entrySet();
-            for (Map.Entry<String, String> masterNode : masterNodeEntries) {
-                if (masterNode.getValue() == null) {
-                    deadMasterHosts.add(masterNode.getKey());
-                }
-            }
+            return new ArrayList<>();
         }
-        return deadMasterHosts;
+        return getCachedNodeMap(MASTERNODES_KEY).getKeysWithoutValue();
     }
 
-  private void removeDeadPrimaryNodes()
+  private synchronized void removeDeadPrimaryNodes()
   {
     deadNodeTracker.resetMasterNodeTimeStamp();
-    Map<String, String> masterNodes = getPrimaryNodes();
-    List<String> deadMasterHosts = getDeadMasterNodes();
+    List<String> deadMasterHosts = getCachedNodeMap(MASTERNODES_KEY).getKeysWithoutValue();
     for (String deadMasterHost : deadMasterHosts) {
-      masterNodes.remove(deadMasterHost);
+      removeNode(MASTERNODES_KEY, deadMasterHost);
       logger.info("Removing dead master node Host: " + deadMasterHost);
     }
-    setPrimaryNodes(masterNodes);
   }
 
   @Override
     public List<String> getDeadDataNodes()
     {
-        List<String> deadDataHosts = new ArrayList<>();
-
         if (deadNodeTracker.slaveNodeTimerExpired()) {
             removeDeadDataNodes();
-        } else {
-            Map<String, String> dataNodes = getRegionNodes();
-            final Set<Map.Entry<String, String>> dataNodeEntries = dataNodes.entrySet();
-            for (Map.Entry<String, String> dataNode : dataNodeEntries) {
-                if (dataNode.getValue() == null) {
-                    deadDataHosts.add(dataNode.getKey());
-                }
-            }
+            return new ArrayList<>();
         }
-        return deadDataHosts;
+        return getCachedNodeMap(SLAVENODES_KEY).getKeysWithoutValue();
     }
 
-  private void removeDeadDataNodes()
+  private synchronized void removeDeadDataNodes()
   {
     deadNodeTracker.resetDataNodeTimeStamp();
-    Map<String, String> dataNodes = getRegionNodes();
-    List<String> deadDataHosts = getDeadDataNodes();
+    List<String> deadDataHosts = getCachedNodeMap(SLAVENODES_KEY).getKeysWithoutValue();
     for (String deadDataHost : deadDataHosts) {
-      dataNodes.remove(deadDataHost);
+      removeNode(SLAVENODES_KEY, deadDataHost);
       logger.info("Removing DN Host: " + deadDataHost);
     }
-    setDataNodes(dataNodes);
   }
 
   @Override
   public Map<String, String> getPrimaryNodes()
   {
-    return getNodesMap(MASTERNODES_KEY);
+    return getCachedNodeMap(MASTERNODES_KEY).snapshot();
   }
 
   @Override
   public Map<String, String> getRegionNodes()
   {
-    return getNodesMap(SLAVENODES_KEY);
+    return getCachedNodeMap(SLAVENODES_KEY).snapshot();
   }
 
   @Override
   public boolean slaveNodeRunningOnSlave(String hostname)
   {
-    return getRegionNodes().containsKey(hostname);
+    return getCachedNodeMap(SLAVENODES_KEY).containsKey(hostname);
   }
 
   @Override
   public boolean masterNodeRunningOnSlave(String hostname)
   {
-    return getPrimaryNodes().containsKey(hostname);
+    return getCachedNodeMap(MASTERNODES_KEY).containsKey(hostname);
   }
 
   @Override
   public Set<String> getAllTaskIds()
   {
-    Set<String> allTaskIds = new HashSet<String>();
-    Collection<String> masterNodes = getPrimaryNodes().values();
-    Collection<String> dataNodes = getRegionNodes().values();
-    allTaskIds.addAll(masterNodes);
-    allTaskIds.addAll(dataNodes);
-    return allTaskIds;
+    loadNodeMaps();
+    return new HashSet<String>(taskNodes.keySet());
+  }
 
+  private void loadNodeMaps()
+  {
+    for (String nodeKey : NODE_KEYS) {
+      getCachedNodeMap(nodeKey);
+    }
   }
 
-  private Map<String, String> getNodesMap(String key)
-    {
-        try {
-            HashMap<String, String> nodesMap = hbaseStore.get(key);
-            if (nodesMap == null) {
-                return new HashMap<>();
-            }
-            return nodesMap;
-        } catch (Exception e) {
-            logger.error(String.format("Error while getting %s in persistent state", key), e);
-            return new HashMap<>();
-        }
+  /**
+   * Returns the in-memory copy of a node map for reading, reading it from the store on first
+   * access only. If the store can't be read an empty map is returned, which is not cached, so the
+   * next access tries to read the store again.
+   */
+  private CachedNodeMap getCachedNodeMap(String key)
+  {
+    try {
+      return getLoadedNodeMap(key);
+    } catch (PersistenceException e) {
+      return new CachedNodeMap(new HashMap<String, String>());
     }
+  }
 
-  private boolean removeTaskIdFromMasterNodes(String taskId)
+  /**
+   * Returns the in-memory copy of a node map, reading it from the store on first access only.
+   * Changes go through this one, a map which could not be read must not be changed, it would not
+   * be in line with the store anymore.
+   *
+   * @throws PersistenceException if the store can't be read
+   */
+  private CachedNodeMap getLoadedNodeMap(String key)
   {
-    boolean nodesModified = false;
-
-    Map<String, String> primaryNodes = getPrimaryNodes();
-    if (primaryNodes.values().contains(taskId)) {
-      for (Map.Entry<String, String> entry : primaryNodes.entrySet()) {
-        if (entry.getValue() != null && entry.getValue().equals(taskId)) {
-          primaryNodes.put(entry.getKey(), null);
-          setPrimaryNodes(primaryNodes);
-          Map<String, String> masterNodeTaskNames = getPrimaryNodeTaskNames();
-          masterNodeTaskNames.remove(taskId);
-          setPrimaryNodeTaskNames(masterNodeTaskNames);
-
-          deadNodeTracker.resetMasterNodeTimeStamp();
-          nodesModified = true;
+    CachedNodeMap nodeMap = nodeMaps.get(key);
+    if (nodeMap == null) {
+      synchronized (this) {
+        nodeMap = nodeMaps.get(key);
+        if (nodeMap == null) {
+          try {
+            nodeMap = new CachedNodeMap(loadNodeMap(key));
+          } catch (Exception e) {
+            String msg = String.format("Error while getting %s in persistent state", key);
+            logger.error(msg, e);
+            throw new PersistenceException(msg, e);
+          }
+          nodeMaps.put(key, nodeMap);
+          if (Arrays.asList(NODE_KEYS).contains(key)) {
+            for (Map.Entry<String, String> node : nodeMap.snapshot().entrySet()) {
+              indexTaskNode(key, node.getKey(), null, node.getValue());
+            }
+          }
         }
       }
     }
-    return nodesModified;
+    return nodeMap;
   }
 
-  private boolean removeTaskIdFromDataNodes(String taskId)
+  /**
+   * Reads all node records of a map. A map still stored as a whole under its key is split into
+   * node records and removed. Nodes which already have a record keep it, the record is newer; the
+   * whole map is only removed once all of its other nodes are stored, so a migration cut short is
+   * completed on the next read.
+   */
+  private HashMap<String, String> loadNodeMap(String key) throws Exception
   {
-    boolean nodesModified = false;
-
-    Map<String, String> dataNodes = getRegionNodes();
-    if (dataNodes.values().contains(taskId)) {
-      for (Map.Entry<String, String> entry : dataNodes.entrySet()) {
-        if (entry.getValue() != null && entry.getValue().equals(taskId)) {
-          dataNodes.put(entry.getKey(), null);
-          setDataNodes(dataNodes);
+    HashMap<String, String> nodes = new HashMap<>();
+    for (Map.Entry<String, byte[]> record : hbaseStore.getRawValuesForPrefix(
+        key + RECORD_SEPARATOR).entrySet()) {
+      byte[] value = record.getValue();
+      nodes.put(record.getKey(), value.length == 0 ? null : new String(value, UTF_8));
+    }
 
-          deadNodeTracker.resetDataNodeTimeStamp();
-          nodesModified = true;
+    HashMap<String, String> wholeMap = hbaseStore.get(key);
+    if (wholeMap != null) {
+      Map<String, byte[]> records = new HashMap<>();
+      for (Map.Entry<String, String> node : wholeMap.entrySet()) {
+        if (!nodes.containsKey(node.getKey())) {
+          records.put(key + RECORD_SEPARATOR + node.getKey(), toRecord(node.getValue()));
+          nodes.put(node.getKey(), node.getValue());
         }
       }
+      logger.info(String.format("Migrating %d of %d %s to node records", records.size(),
+          wholeMap.size(), key));
+      if (!records.isEmpty()) {
+        hbaseStore.setRawValues(records);
+      }
+      hbaseStore.removeRawValueForId(key);
     }
-    return nodesModified;
+    return nodes;
   }
 
-  private void setPrimaryNodes(Map<String, String> primaryNodes)
+  @Override
+  public void flush()
   {
+    Set<String> flushedTaskIds = new HashSet<>(placedNodes.keySet());
     try {
-      hbaseStore.set(MASTERNODES_KEY, primaryNodes);
-    } catch (Exception e) {
-      logger.error("Error while setting primary nodes in persistent state", e);
+      stateWriter.flush();
+      placedNodes.keySet().removeAll(flushedTaskIds);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PersistenceException("Interrupted while waiting for persistent state writes", e);
+    } catch (ExecutionException e) {
+      throw new PersistenceException("Error while writing persistent state", e.getCause());
     }
   }
 
-  private void setPrimaryNodeTaskNames(Map<String, String> primaryNodeTaskNames)
+  /**
+   * Updates a node in memory and queues its record to be written to the store. A null value marks
+   * a node whose task is gone.
+   */
+  private String putNode(String key, String node, String value)
   {
-    try {
-      hbaseStore.set(MASTERNODE_TASKNAMES_KEY, primaryNodeTaskNames);
-    } catch (Exception e) {
-      logger.error("Error while setting primary node task names in persistent state", e);
-    }
+    String previous = getLoadedNodeMap(key).put(node, value);
+    indexTaskNode(key, node, previous, value);
+    stateWriter.write(key + RECORD_SEPARATOR + node, toRecord(value));
+    return previous;
   }
 
-  private void setDataNodes(Map<String, String> dataNodes)
+  private void removeNode(String key, String node)
   {
-    try {
-      hbaseStore.set(SLAVENODES_KEY, dataNodes);
-    } catch (Exception e) {
-      logger.error("Error while setting data nodes in persistent state", e);
+    String previous = getLoadedNodeMap(key).remove(node);
+    indexTaskNode(key, node, previous, null);
+    stateWriter.write(key + RECORD_SEPARATOR + node, null);
+  }
+
+  /**
+   * Keeps {@link #taskNodes} in line with a change of a node from one task id to another.
+   */
+  private void indexTaskNode(String key, String node, String previousTaskId, String taskId)
+  {
+    if (key.equals(MASTERNODE_TASKNAMES_KEY)) {
+      return;
+    }
+    if (previousTaskId != null) {
+      taskNodes.remove(previousTaskId);
     }
+    if (taskId != null) {
+      taskNodes.put(taskId, new TaskNode(key, node));
+    }
+  }
+
+  private static byte[] toRecord(String value)
+  {
+    return value == null ? new byte[]{} : value.getBytes(UTF_8);
   }
 
   @Override
   public Map<String, String> getStargateNodes()
   {
-    return getNodesMap(STARGATENODES_KEY);
+    return getCachedNodeMap(STARGATENODES_KEY).snapshot();
   }
 
   @Override
     public List<String> getDeadStargateNodes()
     {
-        List<String> deadDataHosts = new ArrayList<>();
-
         if (deadNodeTracker.stargateNodeTimerExpired()) {
             removeDeadStargateNodes();
-        } else {
-            Map<String, String> dataNodes = getStargateNodes();
-            final Set<Map.Entry<String, String>> dataNodeEntries = dataNodes.entrySet();
-            for (Map.Entry<String, String> dataNode : dataNodeEntries) {
-                if (dataNode.getValue() == null) {
-                    deadDataHosts.add(dataNode.getKey());
-                }
-            }
+            return new ArrayList<>();
         }
-        return deadDataHosts;
+        return getCachedNodeMap(STARGATENODES_KEY).getKeysWithoutValue();
     }
 
-  private void removeDeadStargateNodes()
+  private synchronized void removeDeadStargateNodes()
   {
     deadNodeTracker.resetStargateNodeTimeStamp();
-    Map<String, String> dataNodes = getStargateNodes();
-    List<String> deadDataHosts = getDeadStargateNodes();
+    List<String> deadDataHosts = getCachedNodeMap(STARGATENODES_KEY).getKeysWithoutValue();
     for (String deadDataHost : deadDataHosts) {
-      dataNodes.remove(deadDataHost);
+      removeNode(STARGATENODES_KEY, deadDataHost);
       logger.info("Removing Rest Host: " + deadDataHost);
     }
-    setStargateNodes(dataNodes);
   }
 
-  private void setStargateNodes(Map<String, String> dataNodes)
+  private static class TaskNode
   {
-    try {
-      hbaseStore.set(STARGATENODES_KEY, dataNodes);
-    } catch (Exception e) {
-      logger.error("Error while setting stargate nodes in persistent state", e);
+    private final String nodeKey;
+    private final String hostname;
+
+    TaskNode(String nodeKey, String hostname)
+    {
+      this.nodeKey = nodeKey;
+      this.hostname = hostname;
     }
   }
 
+  /**
+   * A node added for a task, with the node it replaced, so the addition can be undone.
+   */
+  private static class PlacedNode
+  {
+    private final String nodeKey;
+    private final String hostname;
+    private final boolean known;
+    private final String previousTaskId;
+
+    PlacedNode(String nodeKey, String hostname, boolean known, String previousTaskId)
+    {
+      this.nodeKey = nodeKey;
+      this.hostname = hostname;
+      this.known = known;
+      this.previousTaskId = previousTaskId;
+    }
+  }
 }
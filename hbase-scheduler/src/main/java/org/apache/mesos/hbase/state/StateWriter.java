@@ -0,0 +1,111 @@
+package org.apache.mesos.hbase.state;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes raw values to the store on a single background thread, so callers don't wait for the
+ * store. Values queued while the previous batch is being written are collected into the next
+ * batch, several writes of the same id in one batch are coalesced into the last one, and batches
+ * are written in the order they were queued. The values of a batch which fails are queued again,
+ * unless written again meanwhile, and retried after a delay.
+ */
+class StateWriter {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  static final long RETRY_DELAY_MILLIS = 1000;
+
+  private final IHBaseStore hbaseStore;
+  private final ScheduledExecutorService executor;
+
+  // guarded by this
+  private Map<String, byte[]> pendingValues = new LinkedHashMap<>();
+  private SettableFuture<Void> pendingBatch;
+  private SettableFuture<Void> lastBatch = SettableFuture.create();
+
+  StateWriter(IHBaseStore hbaseStore) {
+    this.hbaseStore = hbaseStore;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("state-writer-%d")
+        .setDaemon(true)
+        .build());
+    lastBatch.set(null);
+  }
+
+  /**
+   * Queues a value, null removes the id. The returned future completes when the value is stored.
+   */
+  synchronized ListenableFuture<Void> write(String id, byte[] value) {
+    pendingValues.put(id, value);
+    return schedulePendingBatch(0);
+  }
+
+  /**
+   * Waits until everything queued so far is stored.
+   *
+   * @throws ExecutionException if the batch holding the last value queued failed, its values are
+   *         retried
+   */
+  void flush() throws ExecutionException, InterruptedException {
+    ListenableFuture<Void> batch;
+    synchronized (this) {
+      batch = lastBatch;
+    }
+    batch.get();
+  }
+
+  private void writePendingBatch() {
+    Map<String, byte[]> values;
+    SettableFuture<Void> batch;
+    synchronized (this) {
+      values = pendingValues;
+      batch = pendingBatch;
+      pendingValues = new LinkedHashMap<>();
+      pendingBatch = null;
+    }
+    try {
+      hbaseStore.setRawValues(values);
+      batch.set(null);
+    } catch (Exception e) {
+      logger.error(String.format("Error while writing %s to persistent state, retrying in %d ms",
+          values.keySet(), RETRY_DELAY_MILLIS), e);
+      requeue(values);
+      batch.setException(e);
+    }
+  }
+
+  private synchronized void requeue(Map<String, byte[]> failedValues) {
+    // ahead of the values queued meanwhile, which are newer if written for the same id
+    Map<String, byte[]> values = new LinkedHashMap<>(failedValues);
+    values.keySet().removeAll(pendingValues.keySet());
+    values.putAll(pendingValues);
+    pendingValues = values;
+    schedulePendingBatch(RETRY_DELAY_MILLIS);
+  }
+
+  // guarded by this
+  private ListenableFuture<Void> schedulePendingBatch(long delayMillis) {
+    if (pendingBatch == null) {
+      pendingBatch = SettableFuture.create();
+      lastBatch = pendingBatch;
+      executor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          writePendingBatch();
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+    return pendingBatch;
+  }
+}
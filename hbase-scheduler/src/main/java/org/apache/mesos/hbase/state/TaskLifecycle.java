@@ -0,0 +1,112 @@
+package org.apache.mesos.hbase.state;
+
+import org.apache.mesos.Protos.TaskState;
+
+/**
+ * When a task launched by this scheduler reached each state of its lifecycle, in milliseconds
+ * since the epoch, 0 for states not reached yet. Launch to starting covers the fetch and the start
+ * of the executor, starting to running the config fetch and the start of the node's process.
+ * Also records when the scheduler last asked to kill the task.
+ */
+public final class TaskLifecycle {
+
+  private final String taskId;
+  private final String nodeType;
+  private final long launched;
+  private volatile long staging;
+  private volatile long starting;
+  private volatile long running;
+  private volatile long terminal;
+  private volatile long killed;
+
+  TaskLifecycle(String taskId, String nodeType, long launched) {
+    this.taskId = taskId;
+    this.nodeType = nodeType;
+    this.launched = launched;
+  }
+
+  /**
+   * @return whether the task reached the state for the first time
+   */
+  synchronized boolean reached(TaskState state, long time) {
+    switch (state) {
+      case TASK_STAGING:
+        if (staging != 0) {
+          return false;
+        }
+        staging = time;
+        return true;
+      case TASK_STARTING:
+        if (starting != 0) {
+          return false;
+        }
+        starting = time;
+        return true;
+      case TASK_RUNNING:
+        if (running != 0) {
+          return false;
+        }
+        running = time;
+        return true;
+      default:
+        if (terminal != 0) {
+          return false;
+        }
+        terminal = time;
+        return true;
+    }
+  }
+
+  /**
+   * Records that the task is asked to be killed.
+   *
+   * @return whether it is the first time
+   */
+  public synchronized boolean killSent(long time) {
+    boolean first = killed == 0;
+    killed = time;
+    return first;
+  }
+
+  public String getTaskId() {
+    return taskId;
+  }
+
+  /**
+   * @return the node type or null if the task was not launched with one
+   */
+  public String getNodeType() {
+    return nodeType;
+  }
+
+  public long getLaunched() {
+    return launched;
+  }
+
+  public long getStaging() {
+    return staging;
+  }
+
+  public long getStarting() {
+    return starting;
+  }
+
+  public long getRunning() {
+    return running;
+  }
+
+  public long getTerminal() {
+    return terminal;
+  }
+
+  /**
+   * @return when the task was last asked to be killed, 0 if never
+   */
+  public long getKilled() {
+    return killed;
+  }
+
+  public boolean isRunningOrTerminal() {
+    return running != 0 || terminal != 0;
+  }
+}
@@ -1,53 +1,64 @@
 package org.apache.mesos.hbase.util;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
 import org.apache.mesos.hbase.scheduler.HBaseScheduler;
+import org.apache.mesos.hbase.scheduler.SchedulerTimer;
 
-import java.io.IOException;
 import java.net.InetAddress;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.Timer;
 import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
 
 /**
- * Provides DNS resolving specific to HBase.
+ * Provides DNS resolving specific to HBase. The master nodes' names are resolved in parallel
+ * without blocking, messages waiting for them are sent as soon as all of them resolve.
  */
 public class DnsResolver {
   private final Log log = LogFactory.getLog(DnsResolver.class);
 
-  static final int NN_TIMER_PERIOD = 10000;
-
   private final HBaseScheduler scheduler;
   private final HBaseFrameworkConfig hbaseFrameworkConfig;
+  private final SchedulerTimer timer;
+  private final HostResolver hostResolver;
+
+  // guarded by this, messages waiting for the master nodes to be resolvable
+  private final List<PreNNInitTask> pending = new ArrayList<>();
+
+  public DnsResolver(HBaseScheduler scheduler, HBaseFrameworkConfig hdfsFrameworkConfig,
+      SchedulerTimer timer) {
+    this(scheduler, hdfsFrameworkConfig, timer,
+        new HostResolver(hdfsFrameworkConfig.getDnsCacheTtl() * 1000L,
+            hdfsFrameworkConfig.getDnsNegativeCacheTtl()));
+  }
 
-  public DnsResolver(HBaseScheduler scheduler, HBaseFrameworkConfig hdfsFrameworkConfig) {
+  public DnsResolver(HBaseScheduler scheduler, HBaseFrameworkConfig hdfsFrameworkConfig,
+      SchedulerTimer timer, HostResolver hostResolver) {
     this.scheduler = scheduler;
     this.hbaseFrameworkConfig = hdfsFrameworkConfig;
+    this.timer = timer;
+    this.hostResolver = hostResolver;
   }
 
+  /**
+   * Answers from the cache without blocking, the names not cached are looked up in the background.
+   */
   public boolean masterNodesResolvable() {
     if (!hbaseFrameworkConfig.usingMesosDns()) {
       return true;
     } //short circuit since Mesos handles this otherwise
-    Set<String> hosts = new HashSet<>();
-    for (int i = 1; i <= HBaseConstants.TOTAL_MASTER_NODES; i++) {
-      hosts.add(HBaseConstants.MASTER_NODE_ID + i + "." + hbaseFrameworkConfig.getFrameworkName() +
-        "." + hbaseFrameworkConfig.getMesosDnsDomain());
-    }
     boolean success = true;
-    for (String host : hosts) {
-      log.info("Resolving DNS for " + host);
-      try {
-        InetAddress.getByName(host);
-        log.info("Successfully found " + host);
-      } catch (SecurityException | IOException e) {
-        log.warn("Couldn't resolve host " + host);
+    for (String host : getMasterHosts()) {
+      if (!hostResolver.isResolved(host)) {
+        hostResolver.resolve(host);
         success = false;
-        break;
       }
     }
     return success;
@@ -60,8 +71,59 @@ public class DnsResolver {
       scheduler.sendMessageTo(driver, taskId, slaveID, message);
       return;
     }
-    Timer timer = new Timer();
-    PreNNInitTask task = new PreNNInitTask(this, scheduler, driver, taskId, slaveID, message);
-    timer.scheduleAtFixedRate(task, 0, NN_TIMER_PERIOD);
+    synchronized (this) {
+      pending.add(new PreNNInitTask(scheduler, driver, taskId, slaveID, message));
+      if (pending.size() > 1) {
+        // already waiting for the names
+        return;
+      }
+    }
+    resolveMasterNodes();
+  }
+
+  private Set<String> getMasterHosts() {
+    Set<String> hosts = new LinkedHashSet<>();
+    for (int i = 1; i <= HBaseConstants.TOTAL_MASTER_NODES; i++) {
+      hosts.add(HBaseConstants.MASTER_NODE_ID + i + "." + hbaseFrameworkConfig.getFrameworkName() +
+        "." + hbaseFrameworkConfig.getMesosDnsDomain());
+    }
+    return hosts;
+  }
+
+  private void resolveMasterNodes() {
+    List<ListenableFuture<InetAddress>> lookups = new ArrayList<>();
+    for (String host : getMasterHosts()) {
+      lookups.add(hostResolver.resolve(host));
+    }
+    final ListenableFuture<List<InetAddress>> addresses = Futures.successfulAsList(lookups);
+    addresses.addListener(new Runnable() {
+      @Override
+      public void run() {
+        masterNodesResolved(Futures.getUnchecked(addresses));
+      }
+    }, MoreExecutors.sameThreadExecutor());
+  }
+
+  private void masterNodesResolved(List<InetAddress> addresses) {
+    if (addresses.contains(null)) {
+      // asked again once the names which did not resolve drop out of the cache
+      log.info("Master nodes not resolvable yet, holding back messages to them");
+      timer.schedule("master-dns", new Runnable() {
+        @Override
+        public void run() {
+          resolveMasterNodes();
+        }
+      }, hbaseFrameworkConfig.getDnsNegativeCacheTtl());
+      return;
+    }
+    log.info("Successfully resolved master nodes " + addresses);
+    List<PreNNInitTask> resolved;
+    synchronized (this) {
+      resolved = new ArrayList<>(pending);
+      pending.clear();
+    }
+    for (PreNNInitTask task : resolved) {
+      task.run();
+    }
   }
 }
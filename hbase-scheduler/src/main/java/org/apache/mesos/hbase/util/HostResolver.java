@@ -0,0 +1,98 @@
+package org.apache.mesos.hbase.util;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves host names without blocking the caller. Lookups run on a few threads of their own, a
+ * name looked up by several callers at once is looked up once. Addresses are cached for the TTL,
+ * names which did not resolve for the negative TTL.
+ */
+public class HostResolver {
+
+  static final int THREADS = 4;
+
+  private final long ttlMillis;
+  private final long negativeTtlMillis;
+  private final ThreadPoolExecutor executor;
+  private final ConcurrentMap<String, Cached> cache = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, SettableFuture<InetAddress>> lookups =
+      new ConcurrentHashMap<>();
+
+  public HostResolver(long ttlMillis, long negativeTtlMillis) {
+    this.ttlMillis = ttlMillis;
+    this.negativeTtlMillis = negativeTtlMillis;
+    this.executor = new ThreadPoolExecutor(THREADS, THREADS, 1, TimeUnit.MINUTES,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+            .setNameFormat("host-resolver-%d")
+            .setDaemon(true)
+            .build());
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @return the address, failed with an {@link UnknownHostException} if the name did not resolve
+   */
+  public ListenableFuture<InetAddress> resolve(final String host) {
+    Cached cached = cache.get(host);
+    if (cached != null && cached.expires > System.currentTimeMillis()) {
+      return cached.address != null
+          ? Futures.immediateFuture(cached.address)
+          : Futures.<InetAddress>immediateFailedFuture(new UnknownHostException(host));
+    }
+    final SettableFuture<InetAddress> lookup = SettableFuture.create();
+    SettableFuture<InetAddress> running = lookups.putIfAbsent(host, lookup);
+    if (running != null) {
+      return running;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          InetAddress address = lookup(host);
+          cache.put(host, new Cached(address, System.currentTimeMillis() + ttlMillis));
+          lookups.remove(host);
+          lookup.set(address);
+        } catch (UnknownHostException | RuntimeException e) {
+          cache.put(host, new Cached(null, System.currentTimeMillis() + negativeTtlMillis));
+          lookups.remove(host);
+          lookup.setException(e);
+        }
+      }
+    });
+    return lookup;
+  }
+
+  /**
+   * @return whether the name is cached as resolvable
+   */
+  public boolean isResolved(String host) {
+    Cached cached = cache.get(host);
+    return cached != null && cached.address != null
+        && cached.expires > System.currentTimeMillis();
+  }
+
+  protected InetAddress lookup(String host) throws UnknownHostException {
+    return InetAddress.getByName(host);
+  }
+
+  private static final class Cached {
+    private final InetAddress address;
+    private final long expires;
+
+    Cached(InetAddress address, long expires) {
+      this.address = address;
+      this.expires = expires;
+    }
+  }
+}
@@ -4,24 +4,20 @@ import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
 import org.apache.mesos.hbase.scheduler.HBaseScheduler;
 
-import java.util.TimerTask;
-
 /**
- * Used for a Primary node init timer to see if DNS is complete.
+ * A message to a Primary node held back until DNS is complete.
  */
-public class PreNNInitTask extends TimerTask {
+public class PreNNInitTask implements Runnable {
 
-  private final DnsResolver dnsResolver;
   private final HBaseScheduler scheduler;
   private final SchedulerDriver driver;
   private final Protos.TaskID taskId;
   private final Protos.SlaveID slaveID;
   private final String message;
 
-  public PreNNInitTask(DnsResolver dnsResolver, HBaseScheduler scheduler, SchedulerDriver driver,
+  public PreNNInitTask(HBaseScheduler scheduler, SchedulerDriver driver,
       Protos.TaskID taskId,
       Protos.SlaveID slaveID, String message) {
-    this.dnsResolver = dnsResolver;
     this.scheduler = scheduler;
     this.driver = driver;
     this.taskId = taskId;
@@ -31,9 +27,6 @@ public class PreNNInitTask extends TimerTask {
 
   @Override
   public void run() {
-    if (dnsResolver.masterNodesResolvable()) {
-      scheduler.sendMessageTo(driver, taskId, slaveID, message);
-      this.cancel();
-    }
+    scheduler.sendMessageTo(driver, taskId, slaveID, message);
   }
 }
@@ -0,0 +1,254 @@
+package org.apache.mesos.hbase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mesos.hbase.config.ConfigRenderer;
+import org.apache.mesos.hbase.config.ConfigServer;
+import org.apache.mesos.hbase.config.ConfigVersion;
+import org.apache.mesos.hbase.config.ExecutorArtifact;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
+import org.apache.mesos.hbase.scheduler.RollingRestart;
+import org.apache.mesos.hbase.state.IPersistentStateStore;
+import org.apache.mesos.hbase.util.HBaseConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestConfigServer {
+
+  private IPersistentStateStore persistenceStore;
+  private RollingRestart rollingRestart;
+  private ConfigServer configServer;
+  private int port;
+  private File template;
+  private File executorDir;
+
+  @Test
+  public void answersUnchangedRegionServersWith304() throws Exception {
+    HttpURLConnection first = get(HBaseConstants.REGION_SERVERS_FILENAME, null);
+    assertEquals(HttpURLConnection.HTTP_OK, first.getResponseCode());
+    String etag = first.getHeaderField("ETag");
+    assertEquals("host1\nhost2\n", IOUtils.toString(first.getInputStream(), "UTF-8"));
+    assertEquals(ConfigVersion.of("host1\nhost2\n".getBytes("UTF-8")), etag);
+
+    HttpURLConnection second = get(HBaseConstants.REGION_SERVERS_FILENAME, etag);
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, second.getResponseCode());
+    assertEquals(etag, second.getHeaderField("ETag"));
+  }
+
+  @Test
+  public void sendsNewVersionWhenNodesChange() throws Exception {
+    String etag = get(HBaseConstants.REGION_SERVERS_FILENAME, null).getHeaderField("ETag");
+
+    Map<String, String> regionNodes = new HashMap<>();
+    regionNodes.put("host2", "slave2");
+    regionNodes.put("host3", "slave3");
+    when(persistenceStore.getRegionNodes()).thenReturn(regionNodes);
+
+    HttpURLConnection changed = get(HBaseConstants.REGION_SERVERS_FILENAME, etag);
+    assertEquals(HttpURLConnection.HTTP_OK, changed.getResponseCode());
+    assertNotEquals(etag, changed.getHeaderField("ETag"));
+    assertTrue(IOUtils.toString(changed.getInputStream(), "UTF-8").contains("host3"));
+  }
+
+  @Test
+  public void rendersHbaseSiteAgainOnlyWhenTemplateOrMastersChange() throws Exception {
+    String etag = get(HBaseConstants.HBASE_CONFIG_FILE_NAME, null).getHeaderField("ETag");
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED,
+        get(HBaseConstants.HBASE_CONFIG_FILE_NAME, etag).getResponseCode());
+
+    Map<String, String> primaryNodes = new HashMap<>();
+    primaryNodes.put("master1", "task1");
+    when(persistenceStore.getPrimaryNodes()).thenReturn(primaryNodes);
+    HttpURLConnection newMaster = get(HBaseConstants.HBASE_CONFIG_FILE_NAME, etag);
+    assertEquals(HttpURLConnection.HTTP_OK, newMaster.getResponseCode());
+    assertEquals("master=master1", IOUtils.toString(newMaster.getInputStream(), "UTF-8"));
+    etag = newMaster.getHeaderField("ETag");
+
+    Files.write(template.toPath(), "primary=${primary1Hostname}".getBytes("UTF-8"));
+    template.setLastModified(template.lastModified() + 2000);
+    HttpURLConnection newTemplate = get(HBaseConstants.HBASE_CONFIG_FILE_NAME, etag);
+    assertEquals(HttpURLConnection.HTTP_OK, newTemplate.getResponseCode());
+    assertEquals("primary=master1", IOUtils.toString(newTemplate.getInputStream(), "UTF-8"));
+  }
+
+  @Test
+  public void matchesAnyOfSeveralVersions() {
+    assertTrue(ConfigVersion.matches("\"a\", \"b\"", "\"b\""));
+    assertTrue(ConfigVersion.matches("*", "\"b\""));
+    assertFalse(ConfigVersion.matches("\"a\"", "\"b\""));
+    assertFalse(ConfigVersion.matches(null, "\"b\""));
+  }
+
+  @Test
+  public void servesExecutorTarballWithRangesAndEtag() throws Exception {
+    HttpURLConnection full = get(HBaseConstants.HBASE_BINARY_FILE_NAME, null);
+    assertEquals(HttpURLConnection.HTTP_OK, full.getResponseCode());
+    assertEquals("0123456789", IOUtils.toString(full.getInputStream(), "UTF-8"));
+    String etag = full.getHeaderField("ETag");
+    assertEquals(ConfigVersion.of("0123456789".getBytes("UTF-8")), etag);
+    assertEquals("bytes", full.getHeaderField("Accept-Ranges"));
+
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED,
+        get(HBaseConstants.HBASE_BINARY_FILE_NAME, etag).getResponseCode());
+
+    HttpURLConnection middle = getRange("bytes=2-5");
+    assertEquals(HttpURLConnection.HTTP_PARTIAL, middle.getResponseCode());
+    assertEquals("bytes 2-5/10", middle.getHeaderField("Content-Range"));
+    assertEquals("2345", IOUtils.toString(middle.getInputStream(), "UTF-8"));
+
+    HttpURLConnection suffix = getRange("bytes=-3");
+    assertEquals(HttpURLConnection.HTTP_PARTIAL, suffix.getResponseCode());
+    assertEquals("789", IOUtils.toString(suffix.getInputStream(), "UTF-8"));
+
+    HttpURLConnection beyond = getRange("bytes=10-");
+    assertEquals(416, beyond.getResponseCode());
+    assertEquals("bytes */10", beyond.getHeaderField("Content-Range"));
+  }
+
+  @Test
+  public void servesChangedExecutorTarballWithNewEtag() throws Exception {
+    String etag = get(HBaseConstants.HBASE_BINARY_FILE_NAME, null).getHeaderField("ETag");
+
+    File tarball = new File(executorDir, HBaseConstants.HBASE_BINARY_FILE_NAME);
+    Files.write(tarball.toPath(), "abcdefghijkl".getBytes("UTF-8"));
+    tarball.setLastModified(tarball.lastModified() + 2000);
+
+    HttpURLConnection changed = get(HBaseConstants.HBASE_BINARY_FILE_NAME, etag);
+    assertEquals(HttpURLConnection.HTTP_OK, changed.getResponseCode());
+    assertNotEquals(etag, changed.getHeaderField("ETag"));
+    assertEquals("abcdefghijkl", IOUtils.toString(changed.getInputStream(), "UTF-8"));
+  }
+
+  @Test
+  public void servesExecutorTarballByChecksum() throws Exception {
+    String checksum = ConfigVersion.of("0123456789".getBytes("UTF-8")).replace("\"", "");
+
+    HttpURLConnection current = get(checksum + "/" + HBaseConstants.HBASE_BINARY_FILE_NAME, null);
+    assertEquals(HttpURLConnection.HTTP_OK, current.getResponseCode());
+    assertEquals("0123456789", IOUtils.toString(current.getInputStream(), "UTF-8"));
+
+    assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+        get("0000/" + HBaseConstants.HBASE_BINARY_FILE_NAME, null).getResponseCode());
+  }
+
+  @Test
+  public void rejectsDownloadsBeyondTheLimitRightAway() throws Exception {
+    configServer.stop();
+    Configuration conf = new Configuration();
+    conf.set("mesos.hbase.executor.path", executorDir.getPath());
+    conf.setInt("mesos.hbase.artifact.max.concurrent.downloads", 0);
+    HBaseFrameworkConfig config = new HBaseFrameworkConfig(conf);
+    configServer = new ConfigServer(config, new ConfigRenderer(config, persistenceStore),
+        new ExecutorArtifact(config), new SchedulerMetrics(), rollingRestart);
+
+    long start = System.currentTimeMillis();
+    HttpURLConnection rejected = get(HBaseConstants.HBASE_BINARY_FILE_NAME, null);
+    assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, rejected.getResponseCode());
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    assertEquals("5", rejected.getHeaderField("Retry-After"));
+  }
+
+  @Test
+  public void servesMetricsAndDecisionsAsJson() throws Exception {
+    HttpURLConnection metrics = get("metrics", null);
+    assertEquals(HttpURLConnection.HTTP_OK, metrics.getResponseCode());
+    String json = IOUtils.toString(metrics.getInputStream(), "UTF-8");
+    assertTrue(json.contains("\"counters\""));
+    assertTrue(json.contains("\"" + SchedulerMetrics.RESOURCE_OFFERS_MILLIS + "\""));
+
+    HttpURLConnection decisions = get("decisions?limit=5", null);
+    assertEquals(HttpURLConnection.HTTP_OK, decisions.getResponseCode());
+    assertEquals("[]", IOUtils.toString(decisions.getInputStream(), "UTF-8"));
+  }
+
+  @Test
+  public void startsAndShowsRollingRestarts() throws Exception {
+    when(rollingRestart.getStatus()).thenReturn(
+        Collections.<String, Object>singletonMap("state", "RUNNING"));
+    when(rollingRestart.start()).thenReturn(true, false);
+
+    assertEquals(HttpURLConnection.HTTP_ACCEPTED, request("POST").getResponseCode());
+    assertEquals(HttpURLConnection.HTTP_CONFLICT, request("POST").getResponseCode());
+    HttpURLConnection status = request("GET");
+    assertEquals(HttpURLConnection.HTTP_OK, status.getResponseCode());
+    assertEquals("{\"state\":\"RUNNING\"}", IOUtils.toString(status.getInputStream(), "UTF-8"));
+    assertEquals(HttpURLConnection.HTTP_CONFLICT, request("DELETE").getResponseCode());
+  }
+
+  @Before
+  public void setup() throws IOException {
+    template = File.createTempFile("hbase-site", ".xml");
+    Files.write(template.toPath(), "master=${primary1Hostname}".getBytes("UTF-8"));
+    Configuration conf = new Configuration();
+    conf.set("mesos.hbase.config.path", template.getPath());
+    executorDir = Files.createTempDirectory("executor").toFile();
+    Files.write(new File(executorDir, HBaseConstants.HBASE_BINARY_FILE_NAME).toPath(),
+        "0123456789".getBytes("UTF-8"));
+    conf.set("mesos.hbase.executor.path", executorDir.getPath());
+
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    System.setProperty("mesos.hbase.config.server.port", String.valueOf(port));
+
+    persistenceStore = mock(IPersistentStateStore.class);
+    Map<String, String> regionNodes = new HashMap<>();
+    regionNodes.put("host1", "slave1");
+    regionNodes.put("host2", "slave2");
+    when(persistenceStore.getRegionNodes()).thenReturn(regionNodes);
+
+    rollingRestart = mock(RollingRestart.class);
+    HBaseFrameworkConfig config = new HBaseFrameworkConfig(conf);
+    configServer = new ConfigServer(config, new ConfigRenderer(config, persistenceStore),
+        new ExecutorArtifact(config), new SchedulerMetrics(), rollingRestart);
+  }
+
+  @After
+  public void tearDown() {
+    configServer.stop();
+    System.clearProperty("mesos.hbase.config.server.port");
+    template.delete();
+    FileUtils.deleteQuietly(executorDir);
+  }
+
+  private HttpURLConnection get(String filename, String ifNoneMatch) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://localhost:" + port + "/" + filename).openConnection();
+    if (ifNoneMatch != null) {
+      connection.setRequestProperty("If-None-Match", ifNoneMatch);
+    }
+    return connection;
+  }
+
+  private HttpURLConnection request(String method) throws IOException {
+    HttpURLConnection connection = get("rolling-restart", null);
+    connection.setRequestMethod(method);
+    return connection;
+  }
+
+  private HttpURLConnection getRange(String range) throws IOException {
+    HttpURLConnection connection = get(HBaseConstants.HBASE_BINARY_FILE_NAME, null);
+    connection.setRequestProperty("Range", range);
+    return connection;
+  }
+}
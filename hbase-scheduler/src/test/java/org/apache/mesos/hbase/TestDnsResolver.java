@@ -0,0 +1,143 @@
+package org.apache.mesos.hbase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
+import org.apache.mesos.hbase.scheduler.HBaseScheduler;
+import org.apache.mesos.hbase.scheduler.SchedulerTimer;
+import org.apache.mesos.hbase.util.DnsResolver;
+import org.apache.mesos.hbase.util.HBaseConstants;
+import org.apache.mesos.hbase.util.HostResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class TestDnsResolver {
+
+  private final FakeHostResolver hostResolver = new FakeHostResolver(60000, 100);
+  private SchedulerTimer timer;
+
+  @Before
+  public void setup() {
+    timer = new SchedulerTimer(new SchedulerMetrics());
+  }
+
+  @After
+  public void teardown() {
+    timer.shutdown();
+  }
+
+  @Test
+  public void cachesResolvedAndUnknownNames() throws Exception {
+    hostResolver.known.add("known");
+
+    assertEquals(InetAddress.getLoopbackAddress(), hostResolver.resolve("known").get());
+    assertEquals(InetAddress.getLoopbackAddress(), hostResolver.resolve("known").get());
+    assertTrue(hostResolver.isResolved("known"));
+    assertUnknown("unknown");
+    assertUnknown("unknown");
+    assertEquals(2, hostResolver.lookups.get());
+
+    Thread.sleep(150);
+    assertUnknown("unknown");
+    assertEquals(3, hostResolver.lookups.get());
+  }
+
+  @Test
+  public void looksUpNameOnceForConcurrentCallers() throws Exception {
+    hostResolver.known.add("known");
+    hostResolver.blocked = new CountDownLatch(1);
+
+    hostResolver.resolve("known");
+    hostResolver.resolve("known");
+    hostResolver.blocked.countDown();
+
+    assertEquals(InetAddress.getLoopbackAddress(), hostResolver.resolve("known").get());
+    assertEquals(1, hostResolver.lookups.get());
+  }
+
+  @Test
+  public void sendsHeldBackMessagesOnceMasterNodesResolve() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("mesos.hbase.mesosdns", "true");
+    conf.setInt("mesos.hbase.mesosdns.negative.ttl.ms", 100);
+    HBaseFrameworkConfig config = new HBaseFrameworkConfig(conf);
+    HBaseScheduler scheduler = mock(HBaseScheduler.class);
+    SchedulerDriver driver = mock(SchedulerDriver.class);
+    DnsResolver dnsResolver = new DnsResolver(scheduler, config, timer, hostResolver);
+    Protos.TaskID taskId = Protos.TaskID.newBuilder().setValue("task").build();
+    Protos.SlaveID slaveId = Protos.SlaveID.newBuilder().setValue("slave").build();
+
+    dnsResolver.sendMessageAfterNNResolvable(driver, taskId, slaveId, "first");
+    dnsResolver.sendMessageAfterNNResolvable(driver, taskId, slaveId, "second");
+    Thread.sleep(200);
+    verify(scheduler, never()).sendMessageTo(driver, taskId, slaveId, "first");
+    assertFalse(dnsResolver.masterNodesResolvable());
+
+    for (int i = 1; i <= HBaseConstants.TOTAL_MASTER_NODES; i++) {
+      hostResolver.known.add(HBaseConstants.MASTER_NODE_ID + i + "." + config.getFrameworkName()
+          + ".mesos");
+    }
+
+    verify(scheduler, timeout(2000)).sendMessageTo(driver, taskId, slaveId, "first");
+    verify(scheduler, timeout(2000)).sendMessageTo(driver, taskId, slaveId, "second");
+    assertTrue(dnsResolver.masterNodesResolvable());
+  }
+
+  private void assertUnknown(String host) throws InterruptedException {
+    try {
+      hostResolver.resolve(host).get();
+      fail("resolved " + host);
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof UnknownHostException);
+    }
+  }
+
+  private static class FakeHostResolver extends HostResolver {
+    final Set<String> known =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final AtomicInteger lookups = new AtomicInteger();
+    volatile CountDownLatch blocked;
+
+    FakeHostResolver(long ttlMillis, long negativeTtlMillis) {
+      super(ttlMillis, negativeTtlMillis);
+    }
+
+    @Override
+    protected InetAddress lookup(String host) throws UnknownHostException {
+      lookups.incrementAndGet();
+      if (blocked != null) {
+        try {
+          blocked.await(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (!known.contains(host)) {
+        throw new UnknownHostException(host);
+      }
+      return InetAddress.getLoopbackAddress();
+    }
+  }
+}
@@ -3,10 +3,15 @@ package org.apache.mesos.hbase;
 import com.google.protobuf.ByteString;
 import org.apache.mesos.Protos;
 import org.apache.mesos.hbase.state.LiveState;
+import org.apache.mesos.hbase.state.TaskLifecycle;
 import org.apache.mesos.hbase.util.HBaseConstants;
 import org.junit.Before;
 import org.junit.Test;
+
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestLiveState {
 
@@ -20,11 +25,35 @@ public class TestLiveState {
     assertEquals(0, liveState.getStagingTasksSize());
   }
 
+  @Test
+  public void listsOnlyTasksNotRunningYet() {
+    liveState.addStagingTask(createTaskId("staging"), "slavenode");
+    liveState.addStagingTask(createTaskId("running"), "slavenode");
+    liveState.recordStatus(createStatus("running", Protos.TaskState.TASK_RUNNING));
+    long now = System.currentTimeMillis() + 1;
+
+    List<TaskLifecycle> stuck = liveState.getTasksNotRunningSince(now);
+    assertEquals(1, stuck.size());
+    assertEquals("staging", stuck.get(0).getTaskId());
+    assertTrue(liveState.getTasksNotRunningSince(now - 60000).isEmpty());
+
+    liveState.recordStatus(createStatus("staging", Protos.TaskState.TASK_KILLED));
+    assertTrue(liveState.getTasksNotRunningSince(now).isEmpty());
+  }
+
   @Before
   public void setup() {
     liveState = new LiveState();
   }
 
+  private Protos.TaskID createTaskId(String id) {
+    return Protos.TaskID.newBuilder().setValue(id).build();
+  }
+
+  private Protos.TaskStatus createStatus(String id, Protos.TaskState state) {
+    return Protos.TaskStatus.newBuilder().setTaskId(createTaskId(id)).setState(state).build();
+  }
+
   private Protos.TaskStatus createTaskStatus(String taskId, Integer taskNumber, String message) {
     return Protos.TaskStatus.newBuilder()
         .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave." + taskNumber.toString()))
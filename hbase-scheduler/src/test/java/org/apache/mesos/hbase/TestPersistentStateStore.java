@@ -0,0 +1,339 @@
+package org.apache.mesos.hbase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mesos.Protos;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.apache.mesos.hbase.state.DeadNodeTracker;
+import org.apache.mesos.hbase.state.HBaseDevelopmentStore;
+import org.apache.mesos.hbase.state.IHBaseStore;
+import org.apache.mesos.hbase.state.PersistenceException;
+import org.apache.mesos.hbase.state.PersistentStateStore;
+import org.apache.mesos.hbase.util.HBaseConstants;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.apache.mesos.hbase.util.NodeTypes.SLAVENODES_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TestPersistentStateStore {
+
+  private final HBaseFrameworkConfig hbaseFrameworkConfig = new HBaseFrameworkConfig(
+      new Configuration());
+
+  private IHBaseStore hbaseStore;
+  private PersistentStateStore persistenceStore;
+
+  @Test
+  public void readsAreServedFromMemory() throws Exception {
+    persistenceStore.addHBaseNode(createTaskId("slave1"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(persistenceStore.slaveNodeRunningOnSlave("host1"));
+      assertFalse(persistenceStore.masterNodeRunningOnSlave("host1"));
+      persistenceStore.getRegionNodes();
+      persistenceStore.getDeadDataNodes();
+    }
+
+    // one read per node map when it is first used
+    verify(hbaseStore, atMost(4)).getRawValuesForPrefix(anyString());
+  }
+
+  @Test
+  public void writesThroughToStore() throws Exception {
+    persistenceStore.addHBaseNode(createTaskId("slave1"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    persistenceStore.flush();
+
+    assertEquals("slave1", new String(hbaseStore.getRawValueForId(SLAVENODES_KEY + ":host1"),
+        "UTF-8"));
+    // only the node that changed is written
+    verify(hbaseStore, never()).set(anyString(), any());
+  }
+
+  @Test
+  public void removesTaskIdAndMarksHostDead() throws Exception {
+    persistenceStore.addHBaseNode(createTaskId("slave1"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    persistenceStore.addHBaseNode(createTaskId("slave2"), "host2", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+
+    persistenceStore.removeTaskId("slave1");
+    persistenceStore.flush();
+
+    assertEquals(1, persistenceStore.getDeadDataNodes().size());
+    assertEquals("host1", persistenceStore.getDeadDataNodes().get(0));
+    assertFalse(persistenceStore.getAllTaskIds().contains("slave1"));
+    assertTrue(persistenceStore.getAllTaskIds().contains("slave2"));
+    Map<String, byte[]> stored = hbaseStore.getRawValuesForPrefix(SLAVENODES_KEY + ":");
+    assertEquals(2, stored.size());
+    assertEquals(0, stored.get("host1").length);
+  }
+
+  @Test
+  public void removesStargateTaskId() {
+    persistenceStore.addHBaseNode(createTaskId("stargate1"), "host1",
+        HBaseConstants.STARGATE_NODE_ID, HBaseConstants.STARGATE_NODE_ID);
+    assertTrue(persistenceStore.getAllTaskIds().contains("stargate1"));
+
+    persistenceStore.removeTaskId("stargate1");
+
+    assertFalse(persistenceStore.getAllTaskIds().contains("stargate1"));
+    assertTrue(persistenceStore.getStargateNodes().containsKey("host1"));
+    assertNull(persistenceStore.getStargateNodes().get("host1"));
+  }
+
+  @Test
+  public void relaunchOnSameHostReplacesTaskId() {
+    persistenceStore.addHBaseNode(createTaskId("slave1"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    persistenceStore.addHBaseNode(createTaskId("slave2"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+
+    persistenceStore.removeTaskId("slave1");
+
+    assertFalse(persistenceStore.getAllTaskIds().contains("slave1"));
+    assertEquals("slave2", persistenceStore.getRegionNodes().get("host1"));
+  }
+
+  @Test
+  public void coalescesWritesQueuedWhileStoreIsBusy() throws Exception {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        writing.countDown();
+        release.await();
+        invocation.callRealMethod();
+        return null;
+      }
+    }).doCallRealMethod().when(hbaseStore).setRawValues(anyMapOf(String.class, byte[].class));
+
+    persistenceStore.addHBaseNode(createTaskId("slave1"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    writing.await();
+    // queued while the first write is blocked, these end up in a single batch
+    persistenceStore.removeTaskId("slave1");
+    persistenceStore.addHBaseNode(createTaskId("slave2"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    persistenceStore.addHBaseNode(createTaskId("slave3"), "host2", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    release.countDown();
+    persistenceStore.flush();
+
+    verify(hbaseStore, times(2)).setRawValues(anyMapOf(String.class, byte[].class));
+    assertEquals("slave2", new String(hbaseStore.getRawValueForId(SLAVENODES_KEY + ":host1"),
+        "UTF-8"));
+    assertEquals("slave3", new String(hbaseStore.getRawValueForId(SLAVENODES_KEY + ":host2"),
+        "UTF-8"));
+  }
+
+  @Test
+  public void retriesFailedWritesAndReportsThemOnFlush() throws Exception {
+    doThrow(new ExecutionException(new IOException("connection loss"))).doCallRealMethod()
+        .when(hbaseStore).setRawValues(anyMapOf(String.class, byte[].class));
+
+    persistenceStore.addHBaseNode(createTaskId("slave1"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    try {
+      persistenceStore.flush();
+      fail("Expected the failed write to be reported");
+    } catch (PersistenceException e) {
+      // the record is queued again
+    }
+    // written again before the retry, the newer task id wins
+    persistenceStore.addHBaseNode(createTaskId("slave2"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    persistenceStore.flush();
+
+    assertEquals("slave2",
+        new String(hbaseStore.getRawValueForId(SLAVENODES_KEY + ":host1"), "UTF-8"));
+    verify(hbaseStore, times(2)).setRawValues(anyMapOf(String.class, byte[].class));
+  }
+
+  @Test
+  public void forgetsNodesWhichCouldNotBeStoredWithoutMakingThemDead() throws Exception {
+    hbaseStore.setRawValueForId(SLAVENODES_KEY + ":host1", "slave0".getBytes("UTF-8"));
+    persistenceStore = new PersistentStateStore(hbaseFrameworkConfig, hbaseStore,
+        new DeadNodeTracker(hbaseFrameworkConfig));
+    doThrow(new ExecutionException(new IOException("connection loss")))
+        .when(hbaseStore).setRawValues(anyMapOf(String.class, byte[].class));
+
+    persistenceStore.addHBaseNode(createTaskId("slave1"), "host1", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    persistenceStore.addHBaseNode(createTaskId("slave2"), "host2", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    persistenceStore.addHBaseNode(createTaskId("master1"), "host3", HBaseConstants.MASTER_NODE_ID,
+        HBaseConstants.MASTER_NODE_ID + 1);
+    try {
+      persistenceStore.flush();
+      fail("Expected the failed write to be reported");
+    } catch (PersistenceException e) {
+      // the offers are declined, their nodes forgotten
+    }
+    persistenceStore.forgetNode("slave1");
+    persistenceStore.forgetNode("slave2");
+    persistenceStore.forgetNode("master1");
+
+    assertTrue(persistenceStore.getDeadDataNodes().isEmpty());
+    assertTrue(persistenceStore.getDeadMasterNodes().isEmpty());
+    assertEquals("slave0", persistenceStore.getRegionNodes().get("host1"));
+    assertEquals(1, persistenceStore.getRegionNodes().size());
+    assertTrue(persistenceStore.getPrimaryNodes().isEmpty());
+    assertTrue(persistenceStore.getPrimaryNodeTaskNames().isEmpty());
+    assertEquals(1, persistenceStore.getAllTaskIds().size());
+  }
+
+  @Test
+  public void returnedMapsDoNotChangeCache() {
+    persistenceStore.addHBaseNode(createTaskId("master1"), "host1", HBaseConstants.MASTER_NODE_ID,
+        HBaseConstants.MASTER_NODE_ID + 1);
+
+    persistenceStore.getPrimaryNodes().clear();
+
+    assertTrue(persistenceStore.masterNodeRunningOnSlave("host1"));
+    assertEquals(HBaseConstants.MASTER_NODE_ID + 1,
+        persistenceStore.getPrimaryNodeTaskNames().get("master1"));
+  }
+
+  @Test
+  public void loadsExistingStateOnce() throws Exception {
+    hbaseStore = spy(new HBaseDevelopmentStore());
+    hbaseStore.setRawValueForId(SLAVENODES_KEY + ":host1", "slave1".getBytes("UTF-8"));
+    hbaseStore.setRawValueForId(SLAVENODES_KEY + ":host2", new byte[]{});
+
+    persistenceStore = new PersistentStateStore(hbaseFrameworkConfig, hbaseStore,
+        new DeadNodeTracker(hbaseFrameworkConfig));
+
+    assertTrue(persistenceStore.slaveNodeRunningOnSlave("host1"));
+    assertEquals(1, persistenceStore.getDeadDataNodes().size());
+    assertTrue(persistenceStore.getAllTaskIds().contains("slave1"));
+    verify(hbaseStore, times(1)).getRawValuesForPrefix(SLAVENODES_KEY + ":");
+  }
+
+  @Test
+  public void migratesWholeNodeMapToRecords() throws Exception {
+    HashMap<String, String> slaveNodes = new HashMap<>();
+    slaveNodes.put("host1", "slave1");
+    slaveNodes.put("host2", null);
+    hbaseStore.set(SLAVENODES_KEY, slaveNodes);
+
+    persistenceStore = new PersistentStateStore(hbaseFrameworkConfig, hbaseStore,
+        new DeadNodeTracker(hbaseFrameworkConfig));
+
+    assertTrue(persistenceStore.slaveNodeRunningOnSlave("host1"));
+    assertEquals(1, persistenceStore.getDeadDataNodes().size());
+    assertNull(hbaseStore.get(SLAVENODES_KEY));
+    assertEquals(2, hbaseStore.getRawValuesForPrefix(SLAVENODES_KEY + ":").size());
+  }
+
+  @Test
+  public void completesMigrationCutShort() throws Exception {
+    HashMap<String, String> slaveNodes = new HashMap<>();
+    slaveNodes.put("host1", "slave1");
+    slaveNodes.put("host2", "slave2");
+    hbaseStore.set(SLAVENODES_KEY, slaveNodes);
+    // host1 was migrated and has been updated since, host2 not yet
+    hbaseStore.setRawValueForId(SLAVENODES_KEY + ":host1", "slave3".getBytes("UTF-8"));
+
+    persistenceStore = new PersistentStateStore(hbaseFrameworkConfig, hbaseStore,
+        new DeadNodeTracker(hbaseFrameworkConfig));
+
+    assertEquals("slave3", persistenceStore.getRegionNodes().get("host1"));
+    assertEquals("slave2", persistenceStore.getRegionNodes().get("host2"));
+    assertNull(hbaseStore.get(SLAVENODES_KEY));
+    assertEquals("slave3", new String(hbaseStore.getRawValueForId(SLAVENODES_KEY + ":host1"),
+        "UTF-8"));
+    assertEquals("slave2", new String(hbaseStore.getRawValueForId(SLAVENODES_KEY + ":host2"),
+        "UTF-8"));
+  }
+
+  @Test
+  public void keepsWholeNodeMapUntilItsNodesAreStored() throws Exception {
+    HashMap<String, String> slaveNodes = new HashMap<>();
+    slaveNodes.put("host1", "slave1");
+    hbaseStore.set(SLAVENODES_KEY, slaveNodes);
+    doThrow(new ExecutionException(new IOException("connection loss"))).doCallRealMethod()
+        .when(hbaseStore).setRawValues(anyMapOf(String.class, byte[].class));
+
+    persistenceStore = new PersistentStateStore(hbaseFrameworkConfig, hbaseStore,
+        new DeadNodeTracker(hbaseFrameworkConfig));
+
+    // the first read failed to store the nodes
+    assertEquals(slaveNodes, hbaseStore.get(SLAVENODES_KEY));
+    // migrated on the next read
+    assertEquals("slave1", persistenceStore.getRegionNodes().get("host1"));
+    assertNull(hbaseStore.get(SLAVENODES_KEY));
+  }
+
+  @Test
+  public void refusesToChangeNodeMapItCouldNotRead() throws Exception {
+    hbaseStore = spy(new HBaseDevelopmentStore());
+    hbaseStore.setRawValueForId(SLAVENODES_KEY + ":host1", "slave1".getBytes("UTF-8"));
+    final AtomicBoolean failing = new AtomicBoolean(true);
+    doAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        if (failing.get()) {
+          throw new ExecutionException(new IOException("connection loss"));
+        }
+        return invocation.callRealMethod();
+      }
+    }).when(hbaseStore).getRawValuesForPrefix(SLAVENODES_KEY + ":");
+    persistenceStore = new PersistentStateStore(hbaseFrameworkConfig, hbaseStore,
+        new DeadNodeTracker(hbaseFrameworkConfig));
+
+    try {
+      persistenceStore.addHBaseNode(createTaskId("slave2"), "host2", HBaseConstants.SLAVE_NODE_ID,
+          HBaseConstants.SLAVE_NODE_ID);
+      fail("Expected the failed read to be reported");
+    } catch (PersistenceException e) {
+      // the node map could not be read while the store was failing
+    }
+    persistenceStore.flush();
+    verify(hbaseStore, never()).setRawValues(anyMapOf(String.class, byte[].class));
+
+    // read again once the store is back
+    failing.set(false);
+    assertEquals("slave1", persistenceStore.getRegionNodes().get("host1"));
+    persistenceStore.addHBaseNode(createTaskId("slave2"), "host2", HBaseConstants.SLAVE_NODE_ID,
+        HBaseConstants.SLAVE_NODE_ID);
+    assertEquals(2, persistenceStore.getRegionNodes().size());
+  }
+
+  @Before
+  public void setup() {
+    System.setProperty(HBaseConstants.DEVELOPMENT_MODE_PROPERTY, Boolean.TRUE.toString());
+    hbaseStore = spy(new HBaseDevelopmentStore());
+    persistenceStore = new PersistentStateStore(hbaseFrameworkConfig, hbaseStore,
+        new DeadNodeTracker(hbaseFrameworkConfig));
+  }
+
+  private Protos.TaskID createTaskId(String id) {
+    return Protos.TaskID.newBuilder().setValue(id).build();
+  }
+}
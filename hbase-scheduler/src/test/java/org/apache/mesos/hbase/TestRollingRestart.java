@@ -0,0 +1,196 @@
+package org.apache.mesos.hbase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
+import org.apache.mesos.hbase.scheduler.RollingRestart;
+import org.apache.mesos.hbase.scheduler.SchedulerTimer;
+import org.apache.mesos.hbase.state.AcquisitionPhase;
+import org.apache.mesos.hbase.state.IPersistentStateStore;
+import org.apache.mesos.hbase.state.LiveState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestRollingRestart {
+
+  private final SchedulerDriver driver = mock(SchedulerDriver.class);
+  private final IPersistentStateStore persistenceStore = mock(IPersistentStateStore.class);
+  private final LiveState liveState = new LiveState();
+  private final SchedulerMetrics metrics = new SchedulerMetrics();
+  private final AtomicInteger regionsInTransition = new AtomicInteger();
+  private final Map<String, String> regionNodes = Collections.synchronizedMap(
+      new HashMap<String, String>());
+  private SchedulerTimer timer;
+
+  @Before
+  public void setup() {
+    timer = new SchedulerTimer(metrics);
+    when(persistenceStore.getRegionNodes()).thenReturn(regionNodes);
+    liveState.transitionTo(AcquisitionPhase.SLAVE_NODES);
+    for (String host : new String[]{
+        "host1", "host2", "host3"}) {
+      launch(host, "task.slavenode." + host + ".0");
+    }
+  }
+
+  @After
+  public void teardown() {
+    timer.shutdown();
+  }
+
+  @Test
+  public void replacesRegionServersOneBatchAtATime() throws Exception {
+    RollingRestart rollingRestart = createRollingRestart(2, 60);
+
+    assertTrue(rollingRestart.start());
+    assertFalse(rollingRestart.start());
+    verify(driver, timeout(2000)).killTask(taskId("task.slavenode.host1.0"));
+    verify(driver, timeout(2000)).killTask(taskId("task.slavenode.host2.0"));
+    Thread.sleep(100);
+    verify(driver, never()).killTask(taskId("task.slavenode.host3.0"));
+
+    kill("host1");
+    kill("host2");
+    launch("host1", "task.slavenode.host1.1");
+    Thread.sleep(100);
+    verify(driver, never()).killTask(taskId("task.slavenode.host3.0"));
+
+    launch("host2", "task.slavenode.host2.1");
+    verify(driver, timeout(2000)).killTask(taskId("task.slavenode.host3.0"));
+
+    kill("host3");
+    launch("host3", "task.slavenode.host3.1");
+    waitFor(rollingRestart, RollingRestart.State.DONE);
+    assertEquals(3, rollingRestart.getStatus().get("restarted"));
+    assertEquals(2, metrics.getCounter("rolling.restart.batches"));
+  }
+
+  @Test
+  public void waitsForRegionsInTransitionBeforeTheNextBatch() throws Exception {
+    RollingRestart rollingRestart = createRollingRestart(1, 60);
+    rollingRestart.start();
+    verify(driver, timeout(2000)).killTask(taskId("task.slavenode.host1.0"));
+
+    regionsInTransition.set(5);
+    kill("host1");
+    launch("host1", "task.slavenode.host1.1");
+    Thread.sleep(100);
+    verify(driver, never()).killTask(taskId("task.slavenode.host2.0"));
+
+    regionsInTransition.set(0);
+    verify(driver, timeout(2000)).killTask(taskId("task.slavenode.host2.0"));
+  }
+
+  @Test
+  public void abortsWhenABatchDoesNotComeBack() throws Exception {
+    RollingRestart rollingRestart = createRollingRestart(1, 1);
+    rollingRestart.start();
+    verify(driver, timeout(2000)).killTask(taskId("task.slavenode.host1.0"));
+    kill("host1");
+
+    waitFor(rollingRestart, RollingRestart.State.ABORTED);
+    verify(driver, never()).killTask(taskId("task.slavenode.host2.0"));
+    assertEquals(1, metrics.getCounter("rolling.restart.aborted"));
+    assertTrue(rollingRestart.start());
+  }
+
+  @Test
+  public void answersWhileAskingTheMastersForRegionsInTransition() throws Exception {
+    final CountDownLatch asking = new CountDownLatch(1);
+    final CountDownLatch answered = new CountDownLatch(1);
+    RollingRestart rollingRestart = createRollingRestart(1, 60,
+        new RollingRestart.RegionsInTransition() {
+          @Override
+          public int count() {
+            asking.countDown();
+            try {
+              // a master slow to answer
+              answered.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            return 0;
+          }
+        });
+    rollingRestart.start();
+    assertTrue(asking.await(2, TimeUnit.SECONDS));
+
+    long start = System.currentTimeMillis();
+    assertEquals("RUNNING", rollingRestart.getStatus().get("state"));
+    assertTrue(rollingRestart.cancel());
+    assertTrue(System.currentTimeMillis() - start < 1000);
+
+    answered.countDown();
+    Thread.sleep(100);
+    // cancelled meanwhile, the answer does not kill a batch anymore
+    verify(driver, never()).killTask(any(Protos.TaskID.class));
+  }
+
+  private RollingRestart createRollingRestart(int batchSize, int timeoutSeconds) {
+    return createRollingRestart(batchSize, timeoutSeconds,
+        new RollingRestart.RegionsInTransition() {
+          @Override
+          public int count() {
+            return regionsInTransition.get();
+          }
+        });
+  }
+
+  private RollingRestart createRollingRestart(int batchSize, int timeoutSeconds,
+      RollingRestart.RegionsInTransition regionsInTransition) {
+    Configuration conf = new Configuration();
+    conf.setInt("mesos.hbase.rolling.restart.batch.size", batchSize);
+    conf.setInt("mesos.hbase.rolling.restart.batch.timeout.seconds", timeoutSeconds);
+    conf.setInt("mesos.hbase.rolling.restart.check.ms", 10);
+    RollingRestart rollingRestart = new RollingRestart(new HBaseFrameworkConfig(conf), liveState,
+        persistenceStore, metrics, regionsInTransition);
+    rollingRestart.attach(driver, timer);
+    return rollingRestart;
+  }
+
+  private void launch(String host, String taskId) {
+    liveState.updateTaskForStatus(Protos.TaskStatus.newBuilder()
+        .setTaskId(taskId(taskId))
+        .setState(Protos.TaskState.TASK_RUNNING)
+        .build());
+    regionNodes.put(host, taskId);
+  }
+
+  private void kill(String host) {
+    liveState.removeRunningTask(taskId(regionNodes.get(host)));
+    regionNodes.put(host, null);
+  }
+
+  private Protos.TaskID taskId(String taskId) {
+    return Protos.TaskID.newBuilder().setValue(taskId).build();
+  }
+
+  private void waitFor(RollingRestart rollingRestart, RollingRestart.State state)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (rollingRestart.getState() != state && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(state, rollingRestart.getState());
+  }
+}
@@ -1,6 +1,7 @@
 package org.apache.mesos.hbase;
 
 import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
@@ -8,7 +9,9 @@ import org.apache.mesos.hbase.scheduler.HBaseScheduler;
 import org.apache.mesos.hbase.state.AcquisitionPhase;
 import org.apache.mesos.hbase.state.LiveState;
 import org.apache.mesos.hbase.state.IPersistentStateStore;
+import org.apache.mesos.hbase.state.PersistenceException;
 import org.apache.mesos.hbase.util.DnsResolver;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -16,16 +19,32 @@ import static org.junit.Assert.assertEquals;
 
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.mesos.hbase.config.ConfigMessage;
+import org.apache.mesos.hbase.config.ConfigRenderer;
+import org.apache.mesos.hbase.config.ConfigVersion;
+import org.apache.mesos.hbase.config.ExecutorArtifact;
 import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.apache.mesos.hbase.metrics.PlacementDecision;
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
 import org.apache.mesos.hbase.util.HBaseConstants;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
@@ -51,12 +70,15 @@ public class TestScheduler {
   @Captor
   ArgumentCaptor<Collection<Protos.TaskInfo>> taskInfosCapture;
 
+  @Captor
+  ArgumentCaptor<Collection<Protos.TaskStatus>> statusesCapture;
+
   HBaseScheduler scheduler;
 
   @Test
   public void statusUpdateWasStagingNowRunning() {
     when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.START_MASTER_NODES);
-    
+
     Protos.TaskID taskId = createTaskId("1");
 
     scheduler.statusUpdate(driver, createTaskStatus(taskId, Protos.TaskState.TASK_RUNNING));
@@ -90,6 +112,93 @@ public class TestScheduler {
     verify(liveState, never()).transitionTo(any(AcquisitionPhase.class));
   }
 
+  @Test
+  public void coalescesConfigReloadsOfRegionServersComingUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt("mesos.hbase.config.reload.window.ms", 200);
+    replaceScheduler(new HBaseScheduler(new HBaseFrameworkConfig(conf), liveState,
+        persistenceStore));
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+    when(liveState.getRunningTaskStatuses()).thenReturn(Arrays.asList(
+        createTaskStatus(createTaskId("0"), Protos.TaskState.TASK_RUNNING),
+        createTaskStatus(createTaskId("1"), Protos.TaskState.TASK_RUNNING),
+        createTaskStatus(createTaskId("2"), Protos.TaskState.TASK_RUNNING)));
+
+    for (int i = 0; i < 3; i++) {
+      scheduler.statusUpdate(driver,
+          createTaskStatus(createTaskId(String.valueOf(i)), Protos.TaskState.TASK_RUNNING));
+    }
+    verify(driver, never()).sendFrameworkMessage(any(Protos.ExecutorID.class),
+        any(Protos.SlaveID.class), any(byte[].class));
+
+    // one reload message per running task, not one per task and status update
+    verify(driver, timeout(2000).times(3)).sendFrameworkMessage(any(Protos.ExecutorID.class),
+        any(Protos.SlaveID.class), any(byte[].class));
+    Thread.sleep(400);
+    verify(driver, times(3)).sendFrameworkMessage(any(Protos.ExecutorID.class),
+        any(Protos.SlaveID.class), any(byte[].class));
+  }
+
+  @Test
+  public void doesNotReloadConfigForProgressOfRunningTasks() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt("mesos.hbase.config.reload.window.ms", 0);
+    replaceScheduler(new HBaseScheduler(new HBaseFrameworkConfig(conf), liveState,
+        persistenceStore));
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+    Protos.TaskStatus running = createTaskStatus(createTaskId("0"),
+        Protos.TaskState.TASK_RUNNING);
+    when(liveState.getRunningTaskStatuses()).thenReturn(Arrays.asList(running));
+    when(liveState.getRunningTasks()).thenReturn(
+        Collections.singletonMap(running.getTaskId().getValue(), running));
+
+    scheduler.statusUpdate(driver, running.toBuilder()
+        .setMessage("Moving regions off the region server, 3 left").build());
+
+    verify(liveState).updateTaskForStatus(any(Protos.TaskStatus.class));
+    Thread.sleep(200);
+    verify(driver, never()).sendFrameworkMessage(any(Protos.ExecutorID.class),
+        any(Protos.SlaveID.class), any(byte[].class));
+  }
+
+  @Test
+  public void pushesOnlyChangedConfigFiles() throws Exception {
+    File template = File.createTempFile("hbase-site", ".xml");
+    template.deleteOnExit();
+    Files.write(template.toPath(), "master=${primary1Hostname}".getBytes("UTF-8"));
+    Configuration conf = new Configuration();
+    conf.set("mesos.hbase.config.path", template.getPath());
+    conf.setInt("mesos.hbase.config.reload.window.ms", 0);
+    replaceScheduler(new HBaseScheduler(new HBaseFrameworkConfig(conf), liveState,
+        persistenceStore));
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+    Protos.TaskStatus running = createTaskStatus(createTaskId("0"),
+        Protos.TaskState.TASK_RUNNING);
+    when(liveState.getRunningTaskStatuses()).thenReturn(Arrays.asList(running));
+
+    scheduler.statusUpdate(driver, running);
+    Map<String, String> regionNodes = new HashMap<>();
+    regionNodes.put("host1", "slave1");
+    when(persistenceStore.getRegionNodes()).thenReturn(regionNodes);
+    scheduler.statusUpdate(driver, running);
+
+    ArgumentCaptor<byte[]> messages = ArgumentCaptor.forClass(byte[].class);
+    verify(driver, times(2)).sendFrameworkMessage(any(Protos.ExecutorID.class),
+        any(Protos.SlaveID.class), messages.capture());
+    List<ConfigMessage.ConfigFile> first = ConfigMessage.decode(messages.getAllValues().get(0))
+        .getFiles();
+    assertEquals(HBaseConstants.HBASE_CONFIG_FILE_NAME, first.get(0).getName());
+    assertEquals("master=", new String(first.get(0).getContent(), "UTF-8"));
+    assertEquals(0, first.get(1).getContent().length);
+
+    List<ConfigMessage.ConfigFile> second = ConfigMessage.decode(messages.getAllValues().get(1))
+        .getFiles();
+    assertEquals(first.get(0).getVersion(), second.get(0).getVersion());
+    assertNull(second.get(0).getContent());
+    assertEquals(HBaseConstants.REGION_SERVERS_FILENAME, second.get(1).getName());
+    assertEquals("host1\n", new String(second.get(1).getContent(), "UTF-8"));
+  }
+
   @Test
   public void launchesMasterNodeWhenInMasternode1Phase() {
     when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.START_MASTER_NODES);
@@ -105,6 +214,39 @@ public class TestScheduler {
 
   @Test
   public void declinesAnyOffersPastWhatItNeeds() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.START_MASTER_NODES);
+
+    scheduler.resourceOffers(driver,
+        Lists.newArrayList(
+            createTestOffer(0),
+            createTestOffer(1),
+            createTestOffer(2),
+            createTestOffer(3)
+            ));
+
+    verify(driver, times(HBaseConstants.TOTAL_MASTER_NODES)).launchTasks(anyList(), anyList());
+    verify(driver, times(2)).declineOffer(any(Protos.OfferID.class),
+        eq(refuseSeconds(hdfsFrameworkConfig.getRefuseSecondsWhenAllRunning())));
+  }
+
+  @Test
+  public void launchesMasterNodesWithDistinctNamesInOneBatch() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.START_MASTER_NODES);
+
+    scheduler.resourceOffers(driver,
+        Lists.newArrayList(
+            createTestOffer(0),
+            createTestOffer(1)
+            ));
+
+    verify(persistenceStore).addHBaseNode(any(Protos.TaskID.class), eq("host0"),
+        eq(HBaseConstants.MASTER_NODE_ID), eq(HBaseConstants.MASTER_NODE_ID + 1));
+    verify(persistenceStore).addHBaseNode(any(Protos.TaskID.class), eq("host1"),
+        eq(HBaseConstants.MASTER_NODE_ID), eq(HBaseConstants.MASTER_NODE_ID + 2));
+  }
+
+  @Test
+  public void launchesDataNodesOnEveryOfferInBatch() {
     when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
 
     scheduler.resourceOffers(driver,
@@ -115,7 +257,153 @@ public class TestScheduler {
             createTestOffer(3)
             ));
 
-    verify(driver, times(3)).declineOffer(any(Protos.OfferID.class));
+    verify(driver, times(4)).launchTasks(anyList(), anyList());
+    verify(driver, never()).declineOffer(any(Protos.OfferID.class));
+    verify(driver, never()).declineOffer(any(Protos.OfferID.class), any(Protos.Filters.class));
+  }
+
+  @Test
+  public void launchesNodesWithDistinctIdsInOneBatch() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+
+    scheduler.resourceOffers(driver,
+        Lists.newArrayList(
+            createTestOffer(0),
+            createTestOffer(1),
+            createTestOffer(2),
+            createTestOffer(3)
+            ));
+
+    verify(driver, times(4)).launchTasks(anyList(), taskInfosCapture.capture());
+    Set<String> taskIds = new HashSet<>();
+    Set<String> executorIds = new HashSet<>();
+    int launched = 0;
+    for (Collection<Protos.TaskInfo> tasks : taskInfosCapture.getAllValues()) {
+      for (Protos.TaskInfo task : tasks) {
+        taskIds.add(task.getTaskId().getValue());
+        executorIds.add(task.getExecutor().getExecutorId().getValue());
+        launched++;
+      }
+    }
+    assertTrue(launched > 4);
+    assertEquals(launched, taskIds.size());
+    assertEquals(launched, executorIds.size());
+  }
+
+  @Test
+  public void packsRegionServerAndStargateIntoOneOffer() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+
+    scheduler.resourceOffers(driver,
+        Lists.newArrayList(createTestOfferWithResources(0, 4, 8192)));
+
+    verify(driver, times(1)).launchTasks(anyList(), taskInfosCapture.capture());
+    assertEquals(2, taskInfosCapture.getValue().size());
+    Iterator<Protos.TaskInfo> taskInfoIterator = taskInfosCapture.getValue().iterator();
+    assertEquals(HBaseConstants.SLAVE_NODE_ID, taskInfoIterator.next().getName());
+    assertEquals(HBaseConstants.STARGATE_NODE_ID, taskInfoIterator.next().getName());
+  }
+
+  @Test
+  public void packsOnlyWhatFitsIntoOffer() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+
+    scheduler.resourceOffers(driver,
+        Lists.newArrayList(createTestOfferWithResources(0, 2, 8192)));
+
+    verify(driver, times(1)).launchTasks(anyList(), taskInfosCapture.capture());
+    assertEquals(1, taskInfosCapture.getValue().size());
+    assertEquals(HBaseConstants.SLAVE_NODE_ID,
+        taskInfosCapture.getValue().iterator().next().getName());
+  }
+
+  @Test
+  public void storesLaunchedNodesBeforeLaunchingTasks() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+
+    scheduler.resourceOffers(driver,
+        Lists.newArrayList(
+            createTestOffer(0),
+            createTestOffer(1)
+            ));
+
+    InOrder inOrder = inOrder(persistenceStore, driver);
+    inOrder.verify(persistenceStore, times(2)).addHBaseNode(any(Protos.TaskID.class),
+        anyString(), eq(HBaseConstants.SLAVE_NODE_ID), anyString());
+    inOrder.verify(persistenceStore).flush();
+    inOrder.verify(driver, times(2)).launchTasks(anyList(), anyList());
+  }
+
+  @Test
+  public void declinesOffersWhenLaunchedNodesCannotBeStored() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+    doThrow(new PersistenceException("connection loss")).when(persistenceStore).flush();
+
+    scheduler.resourceOffers(driver,
+        Lists.newArrayList(
+            createTestOffer(0),
+            createTestOffer(1)
+            ));
+
+    verify(driver, never()).launchTasks(anyList(), anyList());
+    verify(driver).declineOffer(createTestOfferId(0), refuseSeconds(5));
+    verify(driver).declineOffer(createTestOfferId(1), refuseSeconds(5));
+    // every node placed on the offers is forgotten again
+    ArgumentCaptor<Protos.TaskID> placed = ArgumentCaptor.forClass(Protos.TaskID.class);
+    verify(persistenceStore, atLeast(2)).addHBaseNode(placed.capture(), anyString(), anyString(),
+        anyString());
+    ArgumentCaptor<Protos.TaskID> forgotten = ArgumentCaptor.forClass(Protos.TaskID.class);
+    verify(liveState, atLeast(2)).forgetStagingTask(forgotten.capture());
+    assertEquals(placed.getAllValues(), forgotten.getAllValues());
+    for (Protos.TaskID taskId : placed.getAllValues()) {
+      verify(persistenceStore).forgetNode(taskId.getValue());
+    }
+    verify(persistenceStore, never()).removeTaskId(anyString());
+  }
+
+  @Test
+  public void launchesExecutorFromTarballAddressedByChecksum() throws Exception {
+    File executorDir = Files.createTempDirectory("executor").toFile();
+    try {
+      Files.write(new File(executorDir, HBaseConstants.HBASE_BINARY_FILE_NAME).toPath(),
+          "tarball".getBytes("UTF-8"));
+      Configuration conf = new Configuration();
+      conf.set("mesos.hbase.executor.path", executorDir.getPath());
+      conf.set("mesos.hbase.artifact.cache.dir", "/cache");
+      replaceScheduler(new HBaseScheduler(new HBaseFrameworkConfig(conf), liveState,
+          persistenceStore));
+      when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+
+      scheduler.resourceOffers(driver, Lists.newArrayList(createTestOffer(0)));
+
+      verify(driver).launchTasks(anyList(), taskInfosCapture.capture());
+      Protos.CommandInfo command = taskInfosCapture.getValue().iterator().next().getExecutor()
+          .getCommand();
+      String checksum = ConfigVersion.of("tarball".getBytes("UTF-8")).replace("\"", "");
+      Protos.CommandInfo.URI tarball = command.getUris(0);
+      assertTrue(tarball.getValue().endsWith(
+          "/" + checksum + "/" + HBaseConstants.HBASE_BINARY_FILE_NAME));
+      assertTrue(tarball.getCache());
+      assertFalse(tarball.getExtract());
+      assertTrue(command.getValue().contains("/cache/" + checksum));
+    } finally {
+      FileUtils.deleteQuietly(executorDir);
+    }
+  }
+
+  @Test
+  public void declinesAllOffersWhileReconciling() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.RECONCILING_TASKS);
+
+    scheduler.resourceOffers(driver,
+        Lists.newArrayList(
+            createTestOffer(0),
+            createTestOffer(1)
+            ));
+
+    verify(driver, never()).launchTasks(anyList(), anyList());
+    verify(driver, times(2)).declineOffer(any(Protos.OfferID.class),
+        eq(refuseSeconds(hdfsFrameworkConfig.getRefuseSecondsWhileReconciling())));
   }
 
   @Test
@@ -133,6 +421,48 @@ public class TestScheduler {
     assertTrue(taskInfo.getName().contains(HBaseConstants.SLAVE_NODE_ID));
   }
 
+  @Test
+  public void launchesNodesWithHealthCheckOfTheirPort() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+
+    scheduler.resourceOffers(driver, Lists.newArrayList(createTestOffer(0)));
+
+    verify(driver).launchTasks(anyList(), taskInfosCapture.capture());
+    for (Protos.TaskInfo taskInfo : taskInfosCapture.getValue()) {
+      Protos.HealthCheck healthCheck = taskInfo.getHealthCheck();
+      if (taskInfo.getName().contains(HBaseConstants.STARGATE_NODE_ID)) {
+        assertEquals(hdfsFrameworkConfig.getStargateServerPort(), healthCheck.getHttp().getPort());
+        assertEquals("/version", healthCheck.getHttp().getPath());
+      } else {
+        assertEquals(hdfsFrameworkConfig.getRegionServerInfoPort(),
+            healthCheck.getHttp().getPort());
+        assertEquals("/jmx", healthCheck.getHttp().getPath());
+      }
+      assertEquals(hdfsFrameworkConfig.getHealthCheckConsecutiveFailures(),
+          healthCheck.getConsecutiveFailures());
+    }
+  }
+
+  @Test
+  public void killsUnhealthyTasks() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+    SchedulerMetrics metrics = new SchedulerMetrics();
+    replaceScheduler(new HBaseScheduler(hdfsFrameworkConfig, liveState, persistenceStore,
+        new ConfigRenderer(hdfsFrameworkConfig, persistenceStore),
+        new ExecutorArtifact(hdfsFrameworkConfig), metrics));
+    Protos.TaskID healthy = createTaskId("task.slavenode.healthy");
+    Protos.TaskID unhealthy = createTaskId("task.slavenode.unhealthy");
+
+    scheduler.statusUpdate(driver, createTaskStatus(healthy, Protos.TaskState.TASK_RUNNING)
+        .toBuilder().setHealthy(true).build());
+    scheduler.statusUpdate(driver, createTaskStatus(unhealthy, Protos.TaskState.TASK_RUNNING)
+        .toBuilder().setHealthy(false).build());
+
+    verify(driver).killTask(unhealthy);
+    verify(driver, never()).killTask(healthy);
+    assertEquals(1, metrics.getCounter("task.slavenode.unhealthy.killed"));
+  }
+
   @Test
   public void removesTerminalTasksFromLiveState() {
     when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
@@ -157,7 +487,171 @@ public class TestScheduler {
 
     scheduler.resourceOffers(driver, Lists.newArrayList(offer));
 
-    verify(driver, times(1)).declineOffer(offer.getId());
+    verify(driver, times(1)).declineOffer(offer.getId(),
+        refuseSeconds(hdfsFrameworkConfig.getRefuseSecondsForInsufficientResources()));
+  }
+
+  @Test
+  public void holdsBackOffersFromHostsAlreadyRunningRegionServers() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+    Map<String, String> regionNodes = new HashMap<>();
+    regionNodes.put("host0", "task0");
+    when(persistenceStore.getRegionNodes()).thenReturn(regionNodes);
+    Map<String, String> stargateNodes = new HashMap<>();
+    stargateNodes.put("host1", "task1");
+    stargateNodes.put("host2", "task2");
+    when(persistenceStore.getStargateNodes()).thenReturn(stargateNodes);
+    Protos.Offer offer = createTestOffer(0);
+
+    scheduler.resourceOffers(driver, Lists.newArrayList(offer));
+
+    // the shorter filter of the region server's colocation and the stargates all running
+    verify(driver).declineOffer(offer.getId(),
+        refuseSeconds(hdfsFrameworkConfig.getRefuseSecondsForColocation()));
+  }
+
+  @Test
+  public void countsRejectionsByReasonAndNodeType() {
+    SchedulerMetrics metrics = new SchedulerMetrics();
+    replaceScheduler(new HBaseScheduler(hdfsFrameworkConfig, liveState, persistenceStore,
+        new ConfigRenderer(hdfsFrameworkConfig, persistenceStore),
+        new ExecutorArtifact(hdfsFrameworkConfig), metrics));
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+
+    scheduler.resourceOffers(driver, Lists.newArrayList(
+        createTestOfferWithResources(0, 0.1, 64), createTestOffer(1)));
+
+    assertEquals(2, metrics.getCounter("offers.received"));
+    assertEquals(1, metrics.getCounter("offers.accepted"));
+    assertEquals(1, metrics.getCounter("offers.declined.insufficient_resources"));
+    assertEquals(1, metrics.getCounter("rejections.slavenode.insufficient_resources"));
+    assertEquals(1, metrics.getCounter("launches.slavenode"));
+    assertEquals(1, metrics.getHistogram(SchedulerMetrics.RESOURCE_OFFERS_MILLIS).getCount());
+    List<PlacementDecision> decisions = metrics.getDecisions(10);
+    assertEquals("host0", decisions.get(0).getHostname());
+    assertEquals("INSUFFICIENT_RESOURCES", decisions.get(0).getReason());
+  }
+
+  @Test
+  public void countsNoLaunchesWhenLaunchedNodesCannotBeStored() {
+    SchedulerMetrics metrics = new SchedulerMetrics();
+    replaceScheduler(new HBaseScheduler(hdfsFrameworkConfig, liveState, persistenceStore,
+        new ConfigRenderer(hdfsFrameworkConfig, persistenceStore),
+        new ExecutorArtifact(hdfsFrameworkConfig), metrics));
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+    doThrow(new PersistenceException("connection loss")).when(persistenceStore).flush();
+
+    scheduler.resourceOffers(driver, Lists.newArrayList(createTestOffer(0), createTestOffer(1)));
+
+    assertEquals(0, metrics.getCounter("offers.accepted"));
+    assertEquals(2, metrics.getCounter("offers.declined.state_unavailable"));
+    assertEquals(0, metrics.getCounter("launches.slavenode"));
+    assertEquals(0, metrics.getCounter("launches.stargatenode"));
+    for (PlacementDecision decision : metrics.getDecisions(10)) {
+      assertFalse(decision.isLaunched());
+    }
+  }
+
+  @Test
+  public void killsTasksStuckInStaging() {
+    Configuration conf = new Configuration();
+    conf.setInt("mesos.hbase.task.staging.timeout.seconds", 1);
+    LiveState realLiveState = new LiveState();
+    realLiveState.transitionTo(AcquisitionPhase.SLAVE_NODES);
+    replaceScheduler(new HBaseScheduler(new HBaseFrameworkConfig(conf), realLiveState,
+        persistenceStore));
+    scheduler.resourceOffers(driver, Lists.newArrayList(createTestOffer(0), createTestOffer(1)));
+    verify(driver, times(2)).launchTasks(anyList(), taskInfosCapture.capture());
+    List<Collection<Protos.TaskInfo>> launched = taskInfosCapture.getAllValues();
+    Protos.TaskID stuck = launched.get(0).iterator().next().getTaskId();
+    Protos.TaskID started = launched.get(1).iterator().next().getTaskId();
+    scheduler.statusUpdate(driver, createTaskStatus(started, Protos.TaskState.TASK_RUNNING));
+
+    registered();
+
+    verify(driver, timeout(3000)).killTask(stuck);
+    verify(driver, never()).killTask(started);
+  }
+
+  @Test
+  public void killsStuckTaskAgainOnlyAfterAnotherTimeout() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt("mesos.hbase.task.staging.timeout.seconds", 1);
+    LiveState realLiveState = new LiveState();
+    realLiveState.transitionTo(AcquisitionPhase.SLAVE_NODES);
+    SchedulerMetrics metrics = new SchedulerMetrics();
+    HBaseFrameworkConfig config = new HBaseFrameworkConfig(conf);
+    replaceScheduler(new HBaseScheduler(config, realLiveState, persistenceStore,
+        new ConfigRenderer(config, persistenceStore), new ExecutorArtifact(config), metrics));
+    scheduler.resourceOffers(driver, Lists.newArrayList(createTestOffer(0)));
+    verify(driver).launchTasks(anyList(), taskInfosCapture.capture());
+    Protos.TaskID stuck = taskInfosCapture.getValue().iterator().next().getTaskId();
+
+    registered();
+
+    verify(driver, timeout(3000)).killTask(stuck);
+    // checked every half second, the kill is not sent again within the timeout
+    Thread.sleep(700);
+    verify(driver, times(1)).killTask(stuck);
+    verify(driver, timeout(3000).times(2)).killTask(stuck);
+    assertEquals(1, metrics.getCounter("task." + HBaseConstants.SLAVE_NODE_ID + ".stuck.killed"));
+  }
+
+  @Test
+  public void leavesReconcilingOnceEveryTaskReported() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.RECONCILING_TASKS);
+    when(persistenceStore.getAllTaskIds()).thenReturn(new HashSet<>(Arrays.asList("0", "1")));
+
+    registered();
+    verify(driver).reconcileTasks(statusesCapture.capture());
+    assertEquals(2, statusesCapture.getValue().size());
+    verify(liveState, never()).transitionTo(any(AcquisitionPhase.class));
+
+    scheduler.statusUpdate(driver, createTaskStatus(createTaskId("0"),
+        Protos.TaskState.TASK_RUNNING));
+    verify(liveState, never()).transitionTo(any(AcquisitionPhase.class));
+    scheduler.statusUpdate(driver, createTaskStatus(createTaskId("1"),
+        Protos.TaskState.TASK_LOST));
+
+    verify(liveState).transitionTo(AcquisitionPhase.START_MASTER_NODES);
+    verify(driver).reconcileTasks(Collections.<Protos.TaskStatus>emptyList());
+    verify(driver).reviveOffers();
+  }
+
+  @Test
+  public void asksAgainForTasksNotReportedUntilTimeout() {
+    Configuration conf = new Configuration();
+    conf.setInt("mesos.reconciliation.backoff.ms", 50);
+    conf.setInt("mesos.reconciliation.timeout.seconds", 1);
+    replaceScheduler(new HBaseScheduler(new HBaseFrameworkConfig(conf), liveState,
+        persistenceStore));
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.RECONCILING_TASKS);
+    when(persistenceStore.getAllTaskIds()).thenReturn(new HashSet<>(Arrays.asList("0", "1")));
+
+    registered();
+    scheduler.statusUpdate(driver, createTaskStatus(createTaskId("0"),
+        Protos.TaskState.TASK_RUNNING));
+
+    verify(liveState, timeout(3000)).transitionTo(AcquisitionPhase.START_MASTER_NODES);
+    verify(persistenceStore).removeTaskId("1");
+    verify(driver, atLeast(3)).reconcileTasks(statusesCapture.capture());
+    List<Collection<Protos.TaskStatus>> requests = statusesCapture.getAllValues();
+    assertEquals(2, requests.get(0).size());
+    assertEquals("1", requests.get(1).iterator().next().getTaskId().getValue());
+    assertEquals(1, requests.get(1).size());
+    // backing off from 50 ms, at most 5 explicit requests fit into the second
+    assertTrue(requests.size() <= 7);
+    assertTrue(requests.get(requests.size() - 1).isEmpty());
+  }
+
+  @Test
+  public void revivesOffersWhenTaskEnds() {
+    when(liveState.getCurrentAcquisitionPhase()).thenReturn(AcquisitionPhase.SLAVE_NODES);
+
+    scheduler.statusUpdate(driver, createTaskStatus(createTaskId("0"),
+        Protos.TaskState.TASK_LOST));
+
+    verify(driver).reviveOffers();
   }
 
   @Before
@@ -166,6 +660,26 @@ public class TestScheduler {
     this.scheduler = new HBaseScheduler(hdfsFrameworkConfig, liveState, persistenceStore);
   }
 
+  @After
+  public void teardown() {
+    // the staging check and other timers would keep running during later tests
+    scheduler.shutdown();
+  }
+
+  private void replaceScheduler(HBaseScheduler replacement) {
+    scheduler.shutdown();
+    scheduler = replacement;
+  }
+
+  private void registered() {
+    scheduler.registered(driver, Protos.FrameworkID.newBuilder().setValue("framework").build(),
+        Protos.MasterInfo.newBuilder().setId("master").setIp(0).setPort(5050).build());
+  }
+
+  private Protos.Filters refuseSeconds(int seconds) {
+    return Protos.Filters.newBuilder().setRefuseSeconds(seconds).build();
+  }
+
   private Protos.TaskID createTaskId(String id) {
     return Protos.TaskID.newBuilder().setValue(id).build();
   }
@@ -0,0 +1,85 @@
+package org.apache.mesos.hbase;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.hbase.metrics.Histogram;
+import org.apache.mesos.hbase.metrics.PlacementDecision;
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
+import org.apache.mesos.hbase.state.LiveState;
+import org.apache.mesos.hbase.state.TaskLifecycle;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestSchedulerMetrics {
+
+  @Test
+  public void reportsPercentilesAsBucketBounds() {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(50, histogram.getPercentile(50));
+    assertEquals(100, histogram.getPercentile(90));
+    assertEquals(100, histogram.getPercentile(99));
+    assertEquals(Long.valueOf(50), histogram.snapshot().get("mean"));
+    assertEquals(0, new Histogram().getPercentile(50));
+  }
+
+  @Test
+  public void keepsOnlyMostRecentDecisions() {
+    SchedulerMetrics metrics = new SchedulerMetrics();
+    for (int i = 0; i < 600; i++) {
+      metrics.nodeRejected("offer" + i, "host", "slavenode", "COLOCATION", "detail");
+    }
+    metrics.nodeLaunched("offer600", "host", "slavenode", "task1");
+
+    List<PlacementDecision> decisions = metrics.getDecisions(1000);
+    assertEquals(500, decisions.size());
+    assertEquals("offer101", decisions.get(0).getOfferId());
+    PlacementDecision last = metrics.getDecisions(1).get(0);
+    assertTrue(last.isLaunched());
+    assertEquals("task1", last.getDetail());
+    assertFalse(decisions.get(0).isLaunched());
+    assertEquals(600, metrics.getCounter("rejections.slavenode.colocation"));
+  }
+
+  @Test
+  public void measuresLifecyclePerNodeTypeOnce() {
+    SchedulerMetrics metrics = new SchedulerMetrics();
+    LiveState liveState = new LiveState();
+    liveState.addStagingTask(taskId("task1"), "slavenode");
+
+    for (Protos.TaskState state : Arrays.asList(Protos.TaskState.TASK_STARTING,
+        Protos.TaskState.TASK_RUNNING, Protos.TaskState.TASK_RUNNING,
+        Protos.TaskState.TASK_FAILED)) {
+      TaskLifecycle lifecycle = liveState.recordStatus(status("task1", state));
+      if (lifecycle != null) {
+        metrics.taskReached(lifecycle, state);
+      }
+    }
+    assertNull(liveState.recordStatus(status("unknown", Protos.TaskState.TASK_RUNNING)));
+
+    assertEquals(1, metrics.getHistogram(SchedulerMetrics.LAUNCH_TO_RUNNING_MILLIS).getCount());
+    assertEquals(1, metrics.getHistogram("task.slavenode.launch.to.starting.ms").getCount());
+    assertEquals(1, metrics.getHistogram("task.slavenode.launch.to.running.ms").getCount());
+    assertEquals(1, metrics.getHistogram("task.slavenode.starting.to.running.ms").getCount());
+    assertEquals(1, metrics.getCounter("task.slavenode.task_failed"));
+    assertEquals(0, metrics.getCounter("task.slavenode.ended.before.running"));
+  }
+
+  private Protos.TaskID taskId(String id) {
+    return Protos.TaskID.newBuilder().setValue(id).build();
+  }
+
+  private Protos.TaskStatus status(String id, Protos.TaskState state) {
+    return Protos.TaskStatus.newBuilder().setTaskId(taskId(id)).setState(state).build();
+  }
+}
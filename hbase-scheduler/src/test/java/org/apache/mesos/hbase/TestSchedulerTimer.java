@@ -0,0 +1,83 @@
+package org.apache.mesos.hbase;
+
+import org.apache.mesos.hbase.metrics.SchedulerMetrics;
+import org.apache.mesos.hbase.scheduler.SchedulerTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSchedulerTimer {
+
+  private SchedulerMetrics metrics;
+  private SchedulerTimer timer;
+
+  @Before
+  public void setup() {
+    metrics = new SchedulerMetrics();
+    timer = new SchedulerTimer(metrics);
+  }
+
+  @After
+  public void teardown() {
+    timer.shutdown();
+  }
+
+  @Test
+  public void keepsRunningPeriodicTaskThatFailed() throws Exception {
+    final CountDownLatch runs = new CountDownLatch(4);
+    timer.scheduleAtFixedRate("failing", new Runnable() {
+      @Override
+      public void run() {
+        runs.countDown();
+        throw new IllegalStateException("failed");
+      }
+    }, 0, 10);
+
+    assertTrue(runs.await(2, TimeUnit.SECONDS));
+    // the fourth run started after the third failure was counted
+    assertTrue(metrics.getCounter("timer.failing.failures") >= 3);
+    assertTrue(metrics.getHistogram(SchedulerMetrics.TIMER_LATE_MILLIS).getCount() >= 3);
+  }
+
+  @Test
+  public void dropsCancelledTasksFromQueue() {
+    final AtomicInteger runs = new AtomicInteger();
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        runs.incrementAndGet();
+      }
+    };
+    ScheduledFuture<?> first = timer.schedule("task", task, 60000);
+    timer.schedule("task", task, 60000);
+    assertEquals(2, timer.getQueued());
+    assertEquals(Long.valueOf(2), metrics.getGauges().get("timer.queued"));
+
+    first.cancel(false);
+
+    assertEquals(1, timer.getQueued());
+    assertEquals(0, runs.get());
+  }
+
+  @Test
+  public void dropsQueuedTasksOnShutdown() {
+    timer.scheduleAtFixedRate("periodic", new Runnable() {
+      @Override
+      public void run() {
+      }
+    }, 60000, 60000);
+
+    timer.shutdown();
+
+    assertTrue(timer.isTerminated());
+    assertEquals(0, timer.getQueued());
+  }
+}
@@ -0,0 +1,171 @@
+package org.apache.mesos.hbase.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mesos.hbase.config.ConfigServer;
+import org.apache.mesos.hbase.config.HBaseFrameworkConfig;
+import org.apache.mesos.hbase.state.IPersistentStateStore;
+import org.apache.mesos.hbase.util.HBaseConstants;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Load test for the download of the executor tarball from the config server, as done by the Mesos
+ * fetchers of many tasks launched at once. Downloads the tarball with a number of concurrent
+ * clients from the config server and, for comparison, from a plain jetty resource handler as used
+ * before, and prints the throughput and the rejected downloads of each.
+ *
+ * Not run as part of the tests, start it with the main method from the test classpath:
+ * {@code ArtifactServerLoadTest [size in MB] [clients] [downloads per client] [max concurrent]}.
+ */
+public class ArtifactServerLoadTest {
+
+  private final int clients;
+  private final int downloadsPerClient;
+  private final long expectedLength;
+
+  public ArtifactServerLoadTest(int clients, int downloadsPerClient, long expectedLength) {
+    this.clients = clients;
+    this.downloadsPerClient = downloadsPerClient;
+    this.expectedLength = expectedLength;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    int downloadsPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    int maxConcurrent = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+
+    File executorDir = Files.createTempDirectory("executor").toFile();
+    File template = File.createTempFile("hbase-site", ".xml");
+    try {
+      File tarball = new File(executorDir, HBaseConstants.HBASE_BINARY_FILE_NAME);
+      byte[] content = new byte[sizeMb * 1024 * 1024];
+      new Random(0).nextBytes(content);
+      Files.write(tarball.toPath(), content);
+      ArtifactServerLoadTest loadTest = new ArtifactServerLoadTest(clients, downloadsPerClient,
+          content.length);
+      System.out.println(String.format("%d MB tarball, %d clients, %d downloads each", sizeMb,
+          clients, downloadsPerClient));
+
+      int port = freePort();
+      Server plain = new Server(port);
+      ResourceHandler resourceHandler = new ResourceHandler();
+      resourceHandler.setResourceBase(executorDir.getPath());
+      plain.setHandler(resourceHandler);
+      plain.start();
+      try {
+        loadTest.run("resource handler", port);
+      } finally {
+        plain.stop();
+      }
+
+      port = freePort();
+      System.setProperty("mesos.hbase.config.server.port", String.valueOf(port));
+      Configuration conf = new Configuration();
+      conf.set("mesos.hbase.executor.path", executorDir.getPath());
+      conf.set("mesos.hbase.config.path", template.getPath());
+      conf.setInt("mesos.hbase.artifact.max.concurrent.downloads", maxConcurrent);
+      ConfigServer configServer = new ConfigServer(new HBaseFrameworkConfig(conf),
+          mock(IPersistentStateStore.class));
+      try {
+        loadTest.run("config server, max " + maxConcurrent + " concurrent", port);
+      } finally {
+        configServer.stop();
+      }
+    } finally {
+      FileUtils.deleteQuietly(executorDir);
+      template.delete();
+    }
+  }
+
+  private void run(String name, int port) throws Exception {
+    final URL url = new URL("http://localhost:" + port + "/"
+        + HBaseConstants.HBASE_BINARY_FILE_NAME);
+    // one round to warm up both ends
+    download(url);
+
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicInteger rejected = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    List<Future<Void>> results = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int i = 0; i < clients; i++) {
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          for (int j = 0; j < downloadsPerClient; j++) {
+            long length = download(url);
+            if (length < 0) {
+              rejected.incrementAndGet();
+            } else {
+              bytes.addAndGet(length);
+            }
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> result : results) {
+      result.get();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    executor.shutdown();
+
+    System.out.println(String.format("%s: %.0f MB/s, %d downloads in %.1f s, %d rejected", name,
+        bytes.get() / seconds / (1024 * 1024), clients * downloadsPerClient - rejected.get(),
+        seconds, rejected.get()));
+  }
+
+  /**
+   * @return the bytes downloaded or -1 if the download was rejected
+   */
+  private long download(URL url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    int status = connection.getResponseCode();
+    if (status == HttpURLConnection.HTTP_UNAVAILABLE) {
+      IOUtils.closeQuietly(connection.getErrorStream());
+      return -1;
+    }
+    if (status != HttpURLConnection.HTTP_OK) {
+      throw new IOException("Download failed with status " + status);
+    }
+    byte[] buffer = new byte[64 * 1024];
+    long length = 0;
+    try (InputStream in = connection.getInputStream()) {
+      for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+        length += read;
+      }
+    }
+    if (length != expectedLength) {
+      throw new IOException("Downloaded " + length + " of " + expectedLength + " bytes");
+    }
+    return length;
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}